@@ -0,0 +1,59 @@
+#!/usr/bin/env bash
+# Time-to-first-200 on GET /api/products: default build vs the faststart profile
+# (AOT + CDS archive + lazy init). Needs MongoDB reachable at $MONGO_URI.
+#
+#   scripts/startup-bench.sh [runs]
+set -euo pipefail
+
+RUNS=${1:-5}
+PORT=${PORT:-18080}
+MONGO_URI=${MONGO_URI:-mongodb://localhost:27017/ecommerce_bench}
+ROOT=$(cd "$(dirname "$0")/.." && pwd)
+WORK=$(mktemp -d)
+trap 'rm -rf "$WORK"' EXIT
+
+COMMON=(-Dserver.port="$PORT" -Dspring.mongodb.uri="$MONGO_URI" -Dspring.data.mongodb.uri="$MONGO_URI"
+        -Drazorpay.key-id=bench -Drazorpay.key-secret=bench)
+
+cd "$ROOT"
+./mvnw -q -B -DskipTests clean package
+JAR=$(ls target/*-SNAPSHOT.jar | head -1)
+cp "$JAR" "$WORK/default.jar"
+
+./mvnw -q -B -DskipTests -Pfaststart clean package
+FAST_DIR="$ROOT/target/faststart"
+FAST_JAR=$(basename "$JAR")
+
+now_ms() { date +%s%3N; }
+
+# prints ms from exec to the first 200, then stops the instance
+first_200() {
+  local dir=$1; shift
+  local start pid elapsed
+  start=$(now_ms)
+  (cd "$dir" && exec java "$@" >"$WORK/app.log" 2>&1) &
+  pid=$!
+  until [ "$(curl -s -o /dev/null -w '%{http_code}' "http://localhost:$PORT/api/products")" = 200 ]; do
+    if ! kill -0 "$pid" 2>/dev/null; then
+      echo "instance exited before serving, see log:" >&2; cat "$WORK/app.log" >&2; exit 1
+    fi
+    sleep 0.02
+  done
+  elapsed=$(( $(now_ms) - start ))
+  kill "$pid"; wait "$pid" 2>/dev/null || true
+  echo "$elapsed"
+}
+
+median() { sort -n | awk '{a[NR]=$1} END {print (NR%2 ? a[(NR+1)/2] : int((a[NR/2]+a[NR/2+1])/2))}'; }
+
+bench() {
+  local label=$1; shift
+  local results=()
+  for _ in $(seq "$RUNS"); do results+=("$(first_200 "$@")"); done
+  printf '%-10s median %5d ms   runs: %s\n' "$label" "$(printf '%s\n' "${results[@]}" | median)" "${results[*]}"
+}
+
+echo "time to first 200 on /api/products, $RUNS runs each"
+bench default "$WORK" "${COMMON[@]}" -jar default.jar
+bench faststart "$FAST_DIR" -XX:SharedArchiveFile=application.jsa -Dspring.aot.enabled=true \
+  -Dspring.profiles.active=faststart "${COMMON[@]}" -jar "$FAST_JAR"
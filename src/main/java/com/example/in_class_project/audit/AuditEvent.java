@@ -0,0 +1,34 @@
+package com.example.in_class_project.audit;
+
+/**
+ * One preallocated slot of the audit ring. Producers fill the plain fields and
+ * then publish by writing {@code published}; the writer thread only reads a
+ * slot once {@code published} equals the sequence it is waiting for.
+ */
+final class AuditEvent {
+
+    volatile long published = -1;
+    long claimed;
+
+    String type;
+    long epochMillis;
+    String userId;
+    String orderId;
+    String paymentId;
+    double amount;
+    int status;
+    String outcome;
+    String detail;
+    String error;
+    long durationNanos;
+
+    void clear() {
+        userId = null;
+        orderId = null;
+        paymentId = null;
+        amount = Double.NaN;
+        outcome = null;
+        detail = null;
+        error = null;
+    }
+}
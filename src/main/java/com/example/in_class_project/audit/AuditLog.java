@@ -0,0 +1,236 @@
+package com.example.in_class_project.audit;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Structured audit trail for checkout and payments, written as JSON lines to a
+ * rolling file. Request threads only claim a preallocated slot in a ring
+ * buffer, copy a few references and primitives into it and publish it; a single
+ * writer thread formats and writes. When the ring is full the event is dropped
+ * and counted (audit.events.dropped) rather than making the request wait.
+ */
+@Component
+public class AuditLog {
+
+    private static final Logger log = LoggerFactory.getLogger(AuditLog.class);
+    private static final long IDLE_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(200);
+
+    private final boolean enabled;
+    private final AuditEvent[] ring;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong();
+    private volatile long tail;
+    private volatile boolean running = true;
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder written = new LongAdder();
+    private final RollingFileWriter out;
+    private final Thread writer;
+    private final StringBuilder line = new StringBuilder(256);
+
+    @Autowired
+    public AuditLog(MeterRegistry meterRegistry,
+                    @Value("${audit.enabled:true}") boolean enabled,
+                    @Value("${audit.file:logs/audit.log}") String file,
+                    @Value("${audit.buffer-size:8192}") int bufferSize,
+                    @Value("${audit.max-file-size-mb:100}") long maxFileSizeMb,
+                    @Value("${audit.max-history:10}") int maxHistory) {
+        this(meterRegistry, enabled, file, bufferSize, maxFileSizeMb, maxHistory, true);
+    }
+
+    // startWriter=false lets tests fill the ring before anything drains it, see start()
+    AuditLog(MeterRegistry meterRegistry, boolean enabled, String file, int bufferSize,
+             long maxFileSizeMb, int maxHistory, boolean startWriter) {
+        this.enabled = enabled;
+        int capacity = Integer.highestOneBit(Math.max(2, bufferSize - 1)) << 1;
+        this.ring = new AuditEvent[capacity];
+        for (int i = 0; i < capacity; i++) ring[i] = new AuditEvent();
+        this.mask = capacity - 1;
+
+        if (enabled) {
+            try {
+                this.out = new RollingFileWriter(Path.of(file), maxFileSizeMb * 1024 * 1024, maxHistory);
+            } catch (IOException e) {
+                throw new UncheckedIOException("cannot open audit log " + file, e);
+            }
+            this.writer = new Thread(this::drainLoop, "audit-writer");
+            writer.setDaemon(true);
+            if (startWriter) writer.start();
+        } else {
+            this.out = null;
+            this.writer = null;
+        }
+
+        FunctionCounter.builder("audit.events.dropped", dropped, LongAdder::sum)
+                .description("Audit events discarded because the ring buffer was full")
+                .register(meterRegistry);
+        FunctionCounter.builder("audit.events.written", written, LongAdder::sum)
+                .register(meterRegistry);
+        Gauge.builder("audit.queue.depth", this, a -> a.head.get() - a.tail)
+                .description("Audit events waiting for the writer thread")
+                .register(meterRegistry);
+    }
+
+    public void checkout(String userId, String orderId, double amount,
+                         int status, String outcome, String error, long startNanos) {
+        AuditEvent e = claim();
+        if (e == null) return;
+        e.type = "checkout";
+        e.userId = userId;
+        e.orderId = orderId;
+        e.amount = amount;
+        publish(e, status, outcome, error, startNanos);
+    }
+
+    public void paymentCreate(String orderId, String paymentId, double amount,
+                              int status, String outcome, String error, long startNanos) {
+        AuditEvent e = claim();
+        if (e == null) return;
+        e.type = "payment.create";
+        e.orderId = orderId;
+        e.paymentId = paymentId;
+        e.amount = amount;
+        publish(e, status, outcome, error, startNanos);
+    }
+
+    // orderId here is the gateway's order id; the event name goes in detail
+    public void webhook(String event, String paymentId, String gatewayOrderId,
+                        int status, String outcome, String error, long startNanos) {
+        AuditEvent e = claim();
+        if (e == null) return;
+        e.type = "payment.webhook";
+        e.paymentId = paymentId;
+        e.orderId = gatewayOrderId;
+        e.detail = event;
+        publish(e, status, outcome, error, startNanos);
+    }
+
+    void start() {
+        writer.start();
+    }
+
+    public long dropped() {
+        return dropped.sum();
+    }
+
+    private AuditEvent claim() {
+        if (!enabled) return null;
+        long seq;
+        do {
+            seq = head.get();
+            if (seq - tail >= ring.length) {
+                dropped.increment();
+                return null;
+            }
+        } while (!head.compareAndSet(seq, seq + 1));
+        AuditEvent e = ring[(int) (seq & mask)];
+        e.clear();
+        e.claimed = seq;
+        return e;
+    }
+
+    private static void publish(AuditEvent e, int status, String outcome, String error, long startNanos) {
+        e.status = status;
+        e.outcome = outcome;
+        e.error = error;
+        e.epochMillis = System.currentTimeMillis();
+        e.durationNanos = System.nanoTime() - startNanos;
+        e.published = e.claimed;
+    }
+
+    private void drainLoop() {
+        while (running || tail != head.get()) {
+            long next = tail;
+            AuditEvent e = ring[(int) (next & mask)];
+            if (e.published != next) {
+                // nothing published yet, or the producer that claimed it is still filling it in
+                flushQuietly();
+                if (!running && next == head.get()) break;
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+                continue;
+            }
+            writeQuietly(e);
+            tail = next + 1;
+        }
+        flushQuietly();
+    }
+
+    private void writeQuietly(AuditEvent e) {
+        StringBuilder sb = line;
+        sb.setLength(0);
+        sb.append("{\"ts\":\"");
+        DateTimeFormatter.ISO_INSTANT.formatTo(Instant.ofEpochMilli(e.epochMillis), sb);
+        sb.append("\",\"type\":\"").append(e.type).append('"');
+        field(sb, "userId", e.userId);
+        field(sb, "orderId", e.orderId);
+        field(sb, "paymentId", e.paymentId);
+        if (!Double.isNaN(e.amount)) sb.append(",\"amount\":").append(e.amount);
+        sb.append(",\"status\":").append(e.status);
+        field(sb, "outcome", e.outcome);
+        field(sb, "detail", e.detail);
+        field(sb, "error", e.error);
+        sb.append(",\"durationMicros\":").append(e.durationNanos / 1000).append("}\n");
+        byte[] bytes = sb.toString().getBytes(StandardCharsets.UTF_8);
+        try {
+            out.write(bytes, bytes.length);
+            written.increment();
+        } catch (IOException ex) {
+            dropped.increment();
+            log.warn("audit write failed: {}", ex.getMessage());
+        }
+    }
+
+    private static void field(StringBuilder sb, String name, String value) {
+        if (value == null) return;
+        sb.append(",\"").append(name).append("\":\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                case '\t' -> sb.append("\\t");
+                default -> {
+                    if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+                    else sb.append(c);
+                }
+            }
+        }
+        sb.append('"');
+    }
+
+    private void flushQuietly() {
+        try {
+            out.flush();
+        } catch (IOException ex) {
+            log.warn("audit flush failed: {}", ex.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void close() throws InterruptedException, IOException {
+        if (writer == null) return;
+        running = false;
+        writer.join(TimeUnit.SECONDS.toMillis(5));
+        out.close();
+    }
+}
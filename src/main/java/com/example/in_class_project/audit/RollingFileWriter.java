@@ -0,0 +1,67 @@
+package com.example.in_class_project.audit;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+// size-based rolling: audit.log is renamed to audit.log.1, older files shift up, past maxHistory they're deleted
+final class RollingFileWriter implements AutoCloseable {
+
+    private final Path file;
+    private final long maxBytes;
+    private final int maxHistory;
+    private OutputStream out;
+    private long size;
+
+    RollingFileWriter(Path file, long maxBytes, int maxHistory) throws IOException {
+        this.file = file;
+        this.maxBytes = maxBytes;
+        this.maxHistory = maxHistory;
+        Path dir = file.toAbsolutePath().getParent();
+        if (dir != null) Files.createDirectories(dir);
+        open();
+    }
+
+    void write(byte[] line, int len) throws IOException {
+        if (size > 0 && size + len > maxBytes) roll();
+        out.write(line, 0, len);
+        size += len;
+    }
+
+    void flush() throws IOException {
+        out.flush();
+    }
+
+    private void roll() throws IOException {
+        out.close();
+        Files.deleteIfExists(numbered(maxHistory));
+        for (int i = maxHistory - 1; i >= 1; i--) {
+            Path from = numbered(i);
+            if (Files.exists(from)) Files.move(from, numbered(i + 1), StandardCopyOption.REPLACE_EXISTING);
+        }
+        if (maxHistory > 0) {
+            Files.move(file, numbered(1), StandardCopyOption.REPLACE_EXISTING);
+        } else {
+            Files.delete(file);
+        }
+        open();
+    }
+
+    private void open() throws IOException {
+        out = new BufferedOutputStream(Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND), 64 * 1024);
+        size = Files.size(file);
+    }
+
+    private Path numbered(int i) {
+        return file.resolveSibling(file.getFileName() + "." + i);
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
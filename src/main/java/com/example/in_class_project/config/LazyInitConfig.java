@@ -0,0 +1,26 @@
+package com.example.in_class_project.config;
+
+import org.springframework.boot.LazyInitializationExcludeFilter;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.util.ReflectionUtils;
+
+import java.util.Arrays;
+
+/**
+ * With spring.main.lazy-initialization=true (the faststart profile) beans are
+ * created on first use. Beans with @Scheduled methods are never "used" by a
+ * request, so they would silently never run; keep those eager. @EventListener
+ * beans need nothing here, their listeners create them when the event fires.
+ */
+@Configuration
+public class LazyInitConfig {
+
+    @Bean
+    static LazyInitializationExcludeFilter eagerScheduledBeans() {
+        return (beanName, definition, beanType) -> beanType != null && Arrays.stream(ReflectionUtils.getUniqueDeclaredMethods(beanType))
+                .anyMatch(m -> AnnotatedElementUtils.hasAnnotation(m, Scheduled.class));
+    }
+}
@@ -0,0 +1,56 @@
+package com.example.in_class_project.config;
+
+import com.example.in_class_project.model.CartItem;
+import com.example.in_class_project.model.Order;
+import com.example.in_class_project.model.OrderItem;
+import com.example.in_class_project.model.Payment;
+import com.example.in_class_project.model.SalesRollup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.index.IndexResolver;
+import org.springframework.data.mongodb.core.index.MongoPersistentEntityIndexResolver;
+
+import java.util.List;
+
+// auto-index-creation is off by default, so create the annotated indexes ourselves.
+// createIndex is a no-op for indexes that already exist, so this runs in the background
+// instead of holding up readiness; a fresh database just serves unindexed reads until it finishes.
+@Configuration
+public class MongoIndexConfig {
+
+    private static final Logger log = LoggerFactory.getLogger(MongoIndexConfig.class);
+    private static final List<Class<?>> INDEXED_TYPES = List.of(CartItem.class, Order.class, OrderItem.class, Payment.class,
+            SalesRollup.class);
+
+    private final MongoTemplate mongoTemplate;
+
+    public MongoIndexConfig(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void scheduleIndexBootstrap() {
+        Thread t = new Thread(this::ensureIndexes, "mongo-index-bootstrap");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    public void ensureIndexes() {
+        long start = System.nanoTime();
+        IndexResolver resolver = new MongoPersistentEntityIndexResolver(mongoTemplate.getConverter().getMappingContext());
+        for (Class<?> type : INDEXED_TYPES) {
+            try {
+                IndexOperations ops = mongoTemplate.indexOps(type);
+                resolver.resolveIndexFor(type).forEach(ops::createIndex);
+            } catch (RuntimeException e) {
+                log.warn("could not ensure indexes for {}: {}", type.getSimpleName(), e.getMessage());
+            }
+        }
+        log.info("mongo indexes ensured in {} ms", (System.nanoTime() - start) / 1_000_000);
+    }
+}
@@ -4,6 +4,7 @@ import com.razorpay.RazorpayClient;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
 
 @Configuration
 public class RazorpayConfig {
@@ -14,7 +15,9 @@ public class RazorpayConfig {
     @Value("${razorpay.key-secret}")
     private String keySecret;
 
+    // built on the first payment rather than at startup; PaymentService looks it up through an ObjectProvider
     @Bean
+    @Lazy
     public RazorpayClient razorpayClient() throws Exception {
         return new RazorpayClient(keyId, keySecret);
     }
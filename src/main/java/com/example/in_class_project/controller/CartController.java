@@ -1,8 +1,10 @@
 package com.example.in_class_project.controller;
 
 import com.example.in_class_project.dto.AddToCartRequest;
+import com.example.in_class_project.dto.CartLineResponse;
 import com.example.in_class_project.model.CartItem;
 import com.example.in_class_project.model.Product;
+import com.example.in_class_project.ratelimit.RateLimiter;
 import com.example.in_class_project.service.CartService;
 import com.example.in_class_project.service.ProductService;
 import org.springframework.http.HttpStatus;
@@ -17,14 +19,18 @@ public class CartController {
 
     private final CartService cartService;
     private final ProductService productService;
+    private final RateLimiter rateLimiter;
 
-    public CartController(CartService cartService, ProductService productService) {
+    public CartController(CartService cartService, ProductService productService, RateLimiter rateLimiter) {
         this.cartService = cartService;
         this.productService = productService;
+        this.rateLimiter = rateLimiter;
     }
 
     @PostMapping("/add")
     public ResponseEntity<?> add(@RequestBody AddToCartRequest req) {
+        long wait = rateLimiter.acquire("cart-add", req.getUserId());
+        if (wait > 0) return RateLimiter.tooManyRequests(wait);
         try {
             CartItem item = cartService.add(req);
             return ResponseEntity.status(HttpStatus.CREATED).body(item);
@@ -34,25 +40,16 @@ public class CartController {
     }
 
     @GetMapping("/{userId}")
-    public ResponseEntity<List<Map<String,Object>>> get(@PathVariable String userId) {
+    public ResponseEntity<List<CartLineResponse>> get(@PathVariable String userId) {
         List<CartItem> list = cartService.getUserCart(userId);
-        List<Map<String,Object>> out = new ArrayList<>();
-        for (CartItem c : list) {
-            Map<String,Object> m = new LinkedHashMap<>();
-            m.put("id", c.getId());
-            m.put("userId", c.getUserId());
-            m.put("productId", c.getProductId());
-            m.put("quantity", c.getQuantity());
+        List<String> ids = new ArrayList<>(list.size());
+        for (CartItem c : list) ids.add(c.getProductId());
+        Map<String, Product> products = new HashMap<>();
+        for (Product p : productService.getAll(ids)) products.put(p.getId(), p);
 
-            Map<String,Object> prodMap = new LinkedHashMap<>();
-            Optional<Product> p = productService.get(c.getProductId());
-            if (p.isPresent()) {
-                prodMap.put("id", p.get().getId());
-                prodMap.put("name", p.get().getName());
-                prodMap.put("price", p.get().getPrice());
-            }
-            m.put("product", prodMap);
-            out.add(m);
+        List<CartLineResponse> out = new ArrayList<>(list.size());
+        for (CartItem c : list) {
+            out.add(CartLineResponse.of(c, products.get(c.getProductId())));
         }
         return ResponseEntity.ok(out);
     }
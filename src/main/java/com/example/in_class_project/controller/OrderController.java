@@ -1,11 +1,15 @@
 package com.example.in_class_project.controller;
 
+import com.example.in_class_project.audit.AuditLog;
 import com.example.in_class_project.dto.CreateOrderRequest;
+import com.example.in_class_project.dto.OrderResponse;
 import com.example.in_class_project.model.Order;
-import com.example.in_class_project.model.OrderItem;
-import com.example.in_class_project.model.Payment;
+import com.example.in_class_project.repository.projection.OrderItemLine;
+import com.example.in_class_project.repository.projection.PaymentSummary;
+import com.example.in_class_project.ratelimit.RateLimiter;
 import com.example.in_class_project.service.OrderService;
 import com.example.in_class_project.service.PaymentService;
+import org.springframework.data.domain.Slice;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
@@ -18,33 +22,32 @@ public class OrderController {
 
     private final OrderService orderService;
     private final PaymentService paymentService;
+    private final RateLimiter rateLimiter;
+    private final AuditLog audit;
 
-    public OrderController(OrderService orderService, PaymentService paymentService) {
+    public OrderController(OrderService orderService, PaymentService paymentService, RateLimiter rateLimiter,
+                           AuditLog audit) {
         this.orderService = orderService;
         this.paymentService = paymentService;
+        this.rateLimiter = rateLimiter;
+        this.audit = audit;
     }
 
     @PostMapping
     public ResponseEntity<?> create(@RequestBody CreateOrderRequest req) {
+        long start = System.nanoTime();
+        long wait = rateLimiter.acquire("order-create", req.getUserId());
+        if (wait > 0) {
+            audit.checkout(req.getUserId(), null, Double.NaN, 429, "rate_limited", null, start);
+            return RateLimiter.tooManyRequests(wait);
+        }
         try {
             Order o = orderService.createOrder(req);
-            List<OrderItem> items = orderService.getOrderItems(o.getId());
-            Map<String,Object> res = new LinkedHashMap<>();
-            res.put("id", o.getId());
-            res.put("userId", o.getUserId());
-            res.put("totalAmount", o.getTotalAmount());
-            res.put("status", o.getStatus());
-            List<Map<String,Object>> it = new ArrayList<>();
-            for (OrderItem oi : items) {
-                Map<String,Object> m = new LinkedHashMap<>();
-                m.put("productId", oi.getProductId());
-                m.put("quantity", oi.getQuantity());
-                m.put("price", oi.getPrice());
-                it.add(m);
-            }
-            res.put("items", it);
-            return ResponseEntity.status(HttpStatus.CREATED).body(res);
+            List<OrderItemLine> items = orderService.getOrderItemLines(o.getId());
+            audit.checkout(req.getUserId(), o.getId(), o.getTotalAmount(), 201, "created", null, start);
+            return ResponseEntity.status(HttpStatus.CREATED).body(OrderResponse.created(o, items));
         } catch (RuntimeException e) {
+            audit.checkout(req.getUserId(), null, Double.NaN, 400, "rejected", e.getMessage(), start);
             return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
         }
     }
@@ -55,45 +58,27 @@ public class OrderController {
             Optional<Order> o = orderService.getOrder(orderId);
             if (o.isEmpty()) return ResponseEntity.notFound().build();
             Order ord = o.get();
-            List<OrderItem> items = orderService.getOrderItems(orderId);
-            Optional<Payment> payOpt = paymentService.getByOrderId(orderId);
-
-            Map<String,Object> res = new LinkedHashMap<>();
-            res.put("id", ord.getId());
-            res.put("userId", ord.getUserId());
-            res.put("totalAmount", ord.getTotalAmount());
-            res.put("status", ord.getStatus());
-            res.put("createdAt", ord.getCreatedAt());
-
-            List<Map<String,Object>> it = new ArrayList<>();
-            for (OrderItem oi : items) {
-                Map<String,Object> m = new LinkedHashMap<>();
-                m.put("productId", oi.getProductId());
-                m.put("quantity", oi.getQuantity());
-                m.put("price", oi.getPrice());
-                it.add(m);
-            }
-            res.put("items", it);
-
-            if (payOpt.isPresent()) {
-                Payment p = payOpt.get();
-                Map<String,Object> pm = new LinkedHashMap<>();
-                pm.put("id", p.getId());
-                pm.put("status", p.getStatus());
-                pm.put("amount", p.getAmount());
-                pm.put("paymentId", p.getPaymentId());
-                res.put("payment", pm);
-            }
-
-            return ResponseEntity.ok(res);
+            List<OrderItemLine> items = orderService.getOrderItemLines(orderId);
+            Optional<PaymentSummary> payOpt = paymentService.getSummaryByOrderId(orderId);
+            return ResponseEntity.ok(OrderResponse.of(ord, items, payOpt.orElse(null)));
         } catch (RuntimeException e) {
             return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
         }
     }
 
+    // the whole history unless page or size is given; a page says whether more follow in X-Has-Next
     @GetMapping("/user/{userId}")
-    public ResponseEntity<List<Order>> userOrders(@PathVariable String userId) {
-        return ResponseEntity.ok(orderService.getUserOrders(userId));
+    public ResponseEntity<List<Order>> userOrders(@PathVariable String userId,
+                                                  @RequestParam(required = false) Integer page,
+                                                  @RequestParam(required = false) Integer size) {
+        if (page == null && size == null) return ResponseEntity.ok(orderService.getUserOrders(userId));
+        // out-of-range paging is clamped rather than handed to PageRequest, which rejects it
+        Slice<Order> slice = orderService.getUserOrders(userId,
+                page == null ? 0 : Math.max(page, 0),
+                size == null ? 50 : Math.max(1, Math.min(size, 200)));
+        return ResponseEntity.ok()
+                .header("X-Has-Next", String.valueOf(slice.hasNext()))
+                .body(slice.getContent());
     }
 
     @PostMapping("/{orderId}/cancel")
@@ -1,8 +1,13 @@
 package com.example.in_class_project.controller;
 
+import com.example.in_class_project.audit.AuditLog;
 import com.example.in_class_project.dto.PaymentRequest;
+import com.example.in_class_project.model.Order;
 import com.example.in_class_project.model.Payment;
+import com.example.in_class_project.ratelimit.RateLimiter;
+import com.example.in_class_project.service.OrderService;
 import com.example.in_class_project.service.PaymentService;
+import com.example.in_class_project.sharding.ShardKeys;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
@@ -14,15 +19,28 @@ import java.util.Map;
 public class PaymentController {
 
     private final PaymentService paymentService;
+    private final OrderService orderService;
+    private final RateLimiter rateLimiter;
+    private final AuditLog audit;
 
-    public PaymentController(PaymentService paymentService) {
+    public PaymentController(PaymentService paymentService, OrderService orderService, RateLimiter rateLimiter, AuditLog audit) {
         this.paymentService = paymentService;
+        this.orderService = orderService;
+        this.rateLimiter = rateLimiter;
+        this.audit = audit;
     }
 
     @PostMapping("/create")
     public ResponseEntity<?> create(@RequestBody PaymentRequest req) {
+        long start = System.nanoTime();
+        long wait = rateLimiter.acquire("payment-create", userOf(req.getOrderId()));
+        if (wait > 0) {
+            audit.paymentCreate(req.getOrderId(), null, Double.NaN, 429, "rate_limited", null, start);
+            return RateLimiter.tooManyRequests(wait);
+        }
         try {
             Payment p = paymentService.createPayment(req);
+            audit.paymentCreate(p.getOrderId(), p.getId(), p.getAmount(), 201, "created", null, start);
             return ResponseEntity.status(HttpStatus.CREATED).body(Map.of(
                     "paymentId", p.getId(),
                     "orderId", p.getOrderId(),
@@ -31,6 +49,7 @@ public class PaymentController {
                     "razorpayOrderId", p.getRazorpayOrderId()
             ));
         } catch (RuntimeException e) {
+            audit.paymentCreate(req.getOrderId(), null, Double.NaN, 400, "rejected", e.getMessage(), start);
             return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
         }
     }
@@ -52,4 +71,11 @@ public class PaymentController {
             return ResponseEntity.notFound().build();
         }
     }
+
+    // new order ids carry the user; legacy ones have to be looked up, and an unknown order is keyed by itself
+    private String userOf(String orderId) {
+        String userId = ShardKeys.userIdOf(orderId);
+        if (userId != null) return userId;
+        return orderService.getOrder(orderId).map(Order::getUserId).orElse(String.valueOf(orderId));
+    }
 }
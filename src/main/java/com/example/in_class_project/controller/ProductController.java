@@ -1,12 +1,22 @@
 package com.example.in_class_project.controller;
 
 import com.example.in_class_project.model.Product;
+import com.example.in_class_project.service.CatalogCache;
 import com.example.in_class_project.service.ProductService;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.util.DigestUtils;
 import org.springframework.web.bind.annotation.*;
+import tools.jackson.databind.json.JsonMapper;
 
+import java.time.Instant;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Optional;
 
 @RestController
@@ -14,9 +24,13 @@ import java.util.Optional;
 public class ProductController {
 
     private final ProductService svc;
+    private final CatalogCache cache;
+    private final JsonMapper jsonMapper;
 
-    public ProductController(ProductService svc) {
+    public ProductController(ProductService svc, CatalogCache cache, JsonMapper jsonMapper) {
         this.svc = svc;
+        this.cache = cache;
+        this.jsonMapper = jsonMapper;
     }
 
     @PostMapping
@@ -25,25 +39,49 @@ public class ProductController {
                 p.getPrice() == null || p.getStock() == null) {
             return ResponseEntity.badRequest().build();
         }
-        Product saved = svc.create(p);
-        return ResponseEntity.status(HttpStatus.CREATED).body(saved);
+        try {
+            Product saved = svc.create(p);
+            return ResponseEntity.status(HttpStatus.CREATED).body(saved);
+        } catch (DuplicateKeyException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).build();
+        }
     }
 
     @GetMapping
-    public ResponseEntity<List<Product>> all() {
-        return ResponseEntity.ok(svc.getAll());
+    public ResponseEntity<byte[]> all(@RequestHeader(value = "If-None-Match", required = false) String ifNoneMatch) {
+        CatalogCache.Entry entry = cache.getList("all");
+        if (entry == null) {
+            long generation = cache.generation();
+            entry = listEntry(svc.getAll());
+            cache.putList("all", entry, generation);
+        }
+        return respond(entry, ifNoneMatch);
     }
 
     @GetMapping("/{id}")
-    public ResponseEntity<Product> one(@PathVariable String id) {
-        Optional<Product> p = svc.get(id);
-        return p.map(ResponseEntity::ok).orElseGet(() -> ResponseEntity.notFound().build());
+    public ResponseEntity<byte[]> one(@PathVariable String id,
+                                      @RequestHeader(value = "If-None-Match", required = false) String ifNoneMatch) {
+        CatalogCache.Entry entry = cache.getProduct(id);
+        if (entry == null) {
+            long generation = cache.generation();
+            Optional<Product> p = svc.get(id);
+            if (p.isEmpty()) return ResponseEntity.notFound().build();
+            Product prod = p.get();
+            String etag = "\"" + prod.getId() + "-" + (prod.getVersion() == null ? 0 : prod.getVersion()) + "\"";
+            entry = new CatalogCache.Entry(jsonMapper.writeValueAsBytes(prod), etag, prod.getUpdatedAt());
+            cache.putProduct(id, entry, generation);
+        }
+        return respond(entry, ifNoneMatch);
     }
 
     @PutMapping("/{id}")
-    public ResponseEntity<Product> update(@PathVariable String id, @RequestBody Product in) {
-        Optional<Product> p = svc.update(id, in);
-        return p.map(ResponseEntity::ok).orElseGet(() -> ResponseEntity.notFound().build());
+    public ResponseEntity<?> update(@PathVariable String id, @RequestBody Product in) {
+        try {
+            Optional<Product> p = svc.update(id, in);
+            return p.<ResponseEntity<?>>map(ResponseEntity::ok).orElseGet(() -> ResponseEntity.notFound().build());
+        } catch (IllegalStateException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
     }
 
     @DeleteMapping("/{id}")
@@ -54,7 +92,50 @@ public class ProductController {
     }
 
     @GetMapping("/search")
-    public ResponseEntity<List<Product>> search(@RequestParam("q") String q) {
-        return ResponseEntity.ok(svc.search(q));
+    public ResponseEntity<byte[]> search(@RequestParam("q") String q,
+                                         @RequestHeader(value = "If-None-Match", required = false) String ifNoneMatch) {
+        // the name match is case-insensitive, so differently cased queries share an entry
+        String key = "search:" + q.toLowerCase(Locale.ROOT);
+        CatalogCache.Entry entry = cache.getList(key);
+        if (entry == null) {
+            long generation = cache.generation();
+            entry = listEntry(svc.search(q));
+            cache.putList(key, entry, generation);
+        }
+        return respond(entry, ifNoneMatch);
+    }
+
+    private CatalogCache.Entry listEntry(List<Product> products) {
+        byte[] body = jsonMapper.writeValueAsBytes(products);
+        Instant lastModified = null;
+        for (Product p : products) {
+            if (p.getUpdatedAt() != null && (lastModified == null || p.getUpdatedAt().isAfter(lastModified)))
+                lastModified = p.getUpdatedAt();
+        }
+        return new CatalogCache.Entry(body, "\"" + DigestUtils.md5DigestAsHex(body) + "\"", lastModified);
+    }
+
+    private ResponseEntity<byte[]> respond(CatalogCache.Entry entry, String ifNoneMatch) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setETag(entry.etag());
+        headers.setCacheControl(CacheControl.noCache());
+        if (entry.lastModified() != null) headers.setLastModified(entry.lastModified());
+
+        if (matches(ifNoneMatch, entry.etag())) {
+            cache.recordNotModified();
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).headers(headers).build();
+        }
+        cache.recordServed(entry.body().length);
+        return ResponseEntity.ok().headers(headers).contentType(MediaType.APPLICATION_JSON).body(entry.body());
+    }
+
+    private static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) return false;
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.startsWith("W/")) tag = tag.substring(2);
+            if (tag.equals("*") || tag.equals(etag)) return true;
+        }
+        return false;
     }
 }
@@ -0,0 +1,29 @@
+package com.example.in_class_project.dto;
+
+import com.example.in_class_project.model.CartItem;
+import com.example.in_class_project.model.Product;
+
+// field for field what CartController used to put in a map, nulls included
+public record CartLineResponse(String id,
+                               String userId,
+                               String productId,
+                               Integer quantity,
+                               ProductView product) {
+
+    public sealed interface ProductView permits ProductInfo, NoProduct {
+    }
+
+    public record ProductInfo(String id, String name, Double price) implements ProductView {
+    }
+
+    // a product that no longer exists was written as an empty object
+    public record NoProduct() implements ProductView {
+    }
+
+    private static final NoProduct NO_PRODUCT = new NoProduct();
+
+    public static CartLineResponse of(CartItem c, Product p) {
+        ProductView product = p == null ? NO_PRODUCT : new ProductInfo(p.getId(), p.getName(), p.getPrice());
+        return new CartLineResponse(c.getId(), c.getUserId(), c.getProductId(), c.getQuantity(), product);
+    }
+}
@@ -0,0 +1,49 @@
+package com.example.in_class_project.dto;
+
+import com.example.in_class_project.model.Order;
+import com.example.in_class_project.repository.projection.OrderItemLine;
+import com.example.in_class_project.repository.projection.PaymentSummary;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.time.Instant;
+import java.util.List;
+
+// field for field what the controllers used to put in a map, nulls included; only an absent payment is left out
+public record OrderResponse(String id,
+                            String userId,
+                            Double totalAmount,
+                            String status,
+                            Instant createdAt,
+                            List<Item> items,
+                            @JsonInclude(JsonInclude.Include.NON_NULL) PaymentInfo payment) {
+
+    public record Item(String productId, Integer quantity, Double price) {
+    }
+
+    public record PaymentInfo(String id, String status, Double amount, String paymentId) {
+    }
+
+    // the create response never carried createdAt or payment
+    public record Created(String id, String userId, Double totalAmount, String status, List<Item> items) {
+    }
+
+    public static Created created(Order o, List<OrderItemLine> orderItems) {
+        return new Created(o.getId(), o.getUserId(), o.getTotalAmount(), o.getStatus(), items(orderItems));
+    }
+
+    public static OrderResponse of(Order o, List<OrderItemLine> orderItems, PaymentSummary p) {
+        PaymentInfo payment = p == null ? null
+                : new PaymentInfo(p.id(), p.status(), p.amount(), p.paymentId());
+        return new OrderResponse(o.getId(), o.getUserId(), o.getTotalAmount(), o.getStatus(),
+                o.getCreatedAt(), items(orderItems), payment);
+    }
+
+    private static List<Item> items(List<OrderItemLine> orderItems) {
+        Item[] items = new Item[orderItems.size()];
+        for (int i = 0; i < items.length; i++) {
+            OrderItemLine oi = orderItems.get(i);
+            items[i] = new Item(oi.productId(), oi.quantity(), oi.price());
+        }
+        return List.of(items);
+    }
+}
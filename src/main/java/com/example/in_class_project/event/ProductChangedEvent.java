@@ -0,0 +1,10 @@
+package com.example.in_class_project.event;
+
+// published after any write to a product document (details, price or stock);
+// flashSaleChanged is set when a write from another node touched the flashSale flag
+public record ProductChangedEvent(String productId, boolean flashSaleChanged) {
+
+    public ProductChangedEvent(String productId) {
+        this(productId, false);
+    }
+}
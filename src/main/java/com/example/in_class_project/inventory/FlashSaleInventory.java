@@ -0,0 +1,175 @@
+package com.example.in_class_project.inventory;
+
+import com.example.in_class_project.event.ProductChangedEvent;
+import com.example.in_class_project.model.Product;
+import com.example.in_class_project.repository.ProductRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Checkout inventory for products flagged flashSale. Each node leases stock from
+ * the product document in chunks (a conditional $inc, so nodes can never lease
+ * more than exists) and admits buyers against striped in-memory counters, so a
+ * hot SKU's document is written once per chunk instead of once per order.
+ * Unsold leased units go back to Product.stock when the flag is cleared or the
+ * node shuts down; a node that dies holding a lease loses those units until
+ * stock is corrected.
+ */
+@Component
+public class FlashSaleInventory {
+
+    private static final Logger log = LoggerFactory.getLogger(FlashSaleInventory.class);
+
+    private final MongoTemplate mongoTemplate;
+    private final ProductRepository productRepo;
+    private final ApplicationEventPublisher events;
+    private final int stripes;
+    private final long chunk;
+    private final Map<String, Sku> skus = new ConcurrentHashMap<>();
+    private final Counter admitted;
+    private final Counter rejected;
+
+    public FlashSaleInventory(MongoTemplate mongoTemplate,
+                              ProductRepository productRepo,
+                              ApplicationEventPublisher events,
+                              MeterRegistry meterRegistry,
+                              @Value("${flashsale.stripes:16}") int stripes,
+                              @Value("${flashsale.lease-chunk:100}") long chunk) {
+        this.mongoTemplate = mongoTemplate;
+        this.productRepo = productRepo;
+        this.events = events;
+        this.stripes = stripes;
+        this.chunk = chunk;
+        this.admitted = Counter.builder("flashsale.admitted").register(meterRegistry);
+        this.rejected = Counter.builder("flashsale.rejected").register(meterRegistry);
+    }
+
+    public boolean isActive(String productId) {
+        return skus.containsKey(productId);
+    }
+
+    // snapshot taken when the sale started or the product last changed; avoids reading the hot document
+    public Optional<Product> product(String productId) {
+        Sku sku = skus.get(productId);
+        return sku == null ? Optional.empty() : Optional.of(sku.snapshot);
+    }
+
+    // units this node has leased and not yet sold; 0 when the sale isn't running here
+    public long available(String productId) {
+        Sku sku = skus.get(productId);
+        return sku == null ? 0 : sku.stock.available();
+    }
+
+    public boolean tryTake(String productId, int qty) {
+        Sku sku = skus.get(productId);
+        boolean ok = sku != null && sku.stock.tryTake(qty);
+        (ok ? admitted : rejected).increment();
+        return ok;
+    }
+
+    public void release(String productId, int qty) {
+        Sku sku = skus.get(productId);
+        if (sku != null) {
+            sku.stock.release(qty);
+        } else {
+            returnToProduct(productId, qty);
+        }
+    }
+
+    // starts or stops the sale to match the product's flag
+    public void refresh(String productId) {
+        Product p = productRepo.findById(productId).orElse(null);
+        if (p != null && Boolean.TRUE.equals(p.getFlashSale())) {
+            Sku sku = skus.computeIfAbsent(productId, id -> new Sku(p, new StripedStock(stripes, chunk, want -> lease(id, want))));
+            sku.snapshot = p;
+            sku.stock.restocked();
+        } else {
+            Sku sku = skus.remove(productId);
+            if (sku != null) returnToProduct(productId, sku.stock.drain());
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void loadActiveSales() {
+        resync();
+    }
+
+    // re-reads every sale this node runs or should run, e.g. after product changes may have been missed
+    public void resync() {
+        Set<String> ids = new HashSet<>(skus.keySet());
+        Query flagged = Query.query(Criteria.where("flashSale").is(true));
+        flagged.fields().include("_id");
+        for (Product p : mongoTemplate.find(flagged, Product.class)) ids.add(p.getId());
+        ids.forEach(this::refresh);
+    }
+
+    // a sale started on another node reaches us only through the change stream, so the flag change counts too
+    @EventListener
+    public void onProductChanged(ProductChangedEvent event) {
+        if (event.flashSaleChanged() || skus.containsKey(event.productId())) refresh(event.productId());
+    }
+
+    @PreDestroy
+    public void returnLeases() {
+        for (String productId : skus.keySet()) {
+            Sku sku = skus.remove(productId);
+            if (sku != null) returnToProduct(productId, sku.stock.drain());
+        }
+    }
+
+    private long lease(String productId, long want) {
+        // take a full chunk if there is one, otherwise whatever is left
+        while (want > 0) {
+            Product leased = mongoTemplate.findAndModify(
+                    Query.query(Criteria.where("_id").is(productId).and("stock").gte(want)),
+                    new Update().inc("stock", -want).inc("version", 1).set("updatedAt", Instant.now()),
+                    FindAndModifyOptions.options().returnNew(true),
+                    Product.class);
+            if (leased != null) {
+                events.publishEvent(new ProductChangedEvent(productId));
+                return want;
+            }
+            want = productRepo.findById(productId).map(Product::getStock).orElse(0);
+        }
+        return 0;
+    }
+
+    private void returnToProduct(String productId, long qty) {
+        if (qty <= 0) return;
+        mongoTemplate.updateFirst(Query.query(Criteria.where("_id").is(productId)),
+                new Update().inc("stock", qty).inc("version", 1).set("updatedAt", Instant.now()),
+                Product.class);
+        log.info("returned {} unsold flash-sale units of {}", qty, productId);
+        events.publishEvent(new ProductChangedEvent(productId));
+    }
+
+    private static final class Sku {
+        volatile Product snapshot;
+        final StripedStock stock;
+
+        Sku(Product snapshot, StripedStock stock) {
+            this.snapshot = snapshot;
+            this.stock = stock;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.example.in_class_project.inventory;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongUnaryOperator;
+
+/**
+ * Available units of one SKU spread over padded atomic cells so concurrent buyers
+ * mostly CAS different cache lines. Units come from a lease function (asked for
+ * at least a chunk at a time) and never go below zero, so admitting through
+ * tryTake cannot oversell what was leased.
+ */
+public class StripedStock {
+
+    private static final int PAD = 16; // longs per cell, keeps neighbouring cells off the same cache line
+
+    private final AtomicLongArray cells;
+    private final int stripes;
+    private final long chunk;
+    private final LongUnaryOperator lease;
+    private volatile boolean soldOut;
+
+    public StripedStock(int stripes, long chunk, LongUnaryOperator lease) {
+        this.stripes = stripes;
+        this.chunk = chunk;
+        this.lease = lease;
+        this.cells = new AtomicLongArray(stripes * PAD);
+    }
+
+    public boolean tryTake(int qty) {
+        int home = (int) (Thread.currentThread().threadId() % stripes);
+        for (int i = 0; i < stripes; i++) {
+            if (takeFrom((home + i) % stripes, qty)) return true;
+        }
+        if (soldOut) return false;
+        return takeSlow(home, qty);
+    }
+
+    public void release(int qty) {
+        int home = (int) (Thread.currentThread().threadId() % stripes);
+        cells.addAndGet(home * PAD, qty);
+        soldOut = false;
+    }
+
+    // new stock may have arrived upstream, let the next shortfall ask for a lease again
+    public void restocked() {
+        soldOut = false;
+    }
+
+    public long available() {
+        long sum = 0;
+        for (int i = 0; i < stripes; i++) sum += cells.get(i * PAD);
+        return sum;
+    }
+
+    public long drain() {
+        long sum = 0;
+        for (int i = 0; i < stripes; i++) sum += cells.getAndSet(i * PAD, 0);
+        return sum;
+    }
+
+    // pools whatever is left into one cell and tops it up from the lease; rare, so a lock is fine
+    private synchronized boolean takeSlow(int home, int qty) {
+        while (true) {
+            long pooled = drain();
+            if (pooled < qty && !soldOut) {
+                long granted = lease.applyAsLong(Math.max(chunk, qty - pooled));
+                if (granted <= 0) soldOut = true;
+                pooled += Math.max(granted, 0);
+            }
+            cells.addAndGet(home * PAD, pooled);
+            if (takeFrom(home, qty)) return true;
+            if (soldOut) return false;
+        }
+    }
+
+    private boolean takeFrom(int stripe, int qty) {
+        int idx = stripe * PAD;
+        while (true) {
+            long current = cells.get(idx);
+            if (current < qty) return false;
+            if (cells.compareAndSet(idx, current, current - qty)) return true;
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.example.in_class_project.model;
+
+import lombok.*;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+
+// running totals for a user's cart; id is the userId, lines live in cart_items
+@Document(collection = "carts")
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class Cart {
+
+    @Id
+    private String id;
+
+    private Double total;
+    private Integer lineCount;
+    private Instant updatedAt;
+}
@@ -2,9 +2,13 @@ package com.example.in_class_project.model;
 
 import lombok.*;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.Sharded;
+import org.springframework.data.mongodb.core.mapping.ShardingStrategy;
 
 @Document(collection = "cart_items")
+@Sharded(shardKey = "userId", shardingStrategy = ShardingStrategy.HASH, immutableKey = true)
 @Getter
 @Setter
 @NoArgsConstructor
@@ -15,7 +19,9 @@ public class CartItem {
     @Id
     private String id;
 
+    @Indexed
     private String userId;
+    @Indexed
     private String productId;
     private Integer quantity;
 }
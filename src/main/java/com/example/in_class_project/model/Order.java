@@ -2,11 +2,19 @@ package com.example.in_class_project.model;
 
 import lombok.*;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Version;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
 import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.Sharded;
+import org.springframework.data.mongodb.core.mapping.ShardingStrategy;
 
 import java.time.Instant;
+import java.util.List;
 
 @Document(collection = "orders")
+@Sharded(shardKey = "userId", shardingStrategy = ShardingStrategy.HASH, immutableKey = true)
+@CompoundIndex(name = "status_createdAt", def = "{'status': 1, 'createdAt': 1}")
+@CompoundIndex(name = "userId_createdAt", def = "{'userId': 1, 'createdAt': -1}")
 @Getter
 @Setter
 @NoArgsConstructor
@@ -21,4 +29,14 @@ public class Order {
     private Double totalAmount;
     private String status;
     private Instant createdAt;
+
+    // set with the move to CANCELLED or EXPIRED: true once the stock return is claimed (or done), false while some is owed
+    private Boolean stockReleased;
+
+    // products whose stock return failed while stockReleased is false; the expiry sweep retries only these
+    private List<String> stockOwed;
+
+    // bumped by every status change; transitions are conditional on the version they read
+    @Version
+    private Long version;
 }
@@ -2,9 +2,15 @@ package com.example.in_class_project.model;
 
 import lombok.*;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.Sharded;
+import org.springframework.data.mongodb.core.mapping.ShardingStrategy;
 
 @Document(collection = "order_items")
+@Sharded(shardKey = "userId", shardingStrategy = ShardingStrategy.HASH, immutableKey = true)
+@CompoundIndex(name = "userId_orderId", def = "{'userId': 1, 'orderId': 1}")
 @Getter
 @Setter
 @NoArgsConstructor
@@ -15,6 +21,8 @@ public class OrderItem {
     @Id
     private String id;
 
+    private String userId;
+    @Indexed
     private String orderId;
     private String productId;
     private Integer quantity;
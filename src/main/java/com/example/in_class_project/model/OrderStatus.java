@@ -0,0 +1,49 @@
+package com.example.in_class_project.model;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Order lifecycle. Orders store the status as its name, and every change is a
+ * conditional update that only applies the moves listed here: one order at a
+ * time through OrderService.transition, or, for the expiry sweep, an update in
+ * OrderExpiryService.expireBatch conditioned on {@code EXPIRED.sources()}.
+ * <pre>
+ * CREATED ──→ PAID
+ *    │  └───→ FAILED ──→ PAID        (a retried attempt on the same gateway order)
+ *    │          └──────→ CANCELLED / EXPIRED
+ *    └──────→ CANCELLED / EXPIRED
+ * </pre>
+ * PAID, CANCELLED and EXPIRED are final, so a late payment.failed can never
+ * undo a capture and a capture can't revive an order whose stock was released.
+ */
+public enum OrderStatus {
+    CREATED,
+    PAID,
+    FAILED,
+    CANCELLED,
+    EXPIRED;
+
+    public Set<OrderStatus> next() {
+        return switch (this) {
+            case CREATED -> EnumSet.of(PAID, FAILED, CANCELLED, EXPIRED);
+            case FAILED -> EnumSet.of(PAID, CANCELLED, EXPIRED);
+            case PAID, CANCELLED, EXPIRED -> EnumSet.noneOf(OrderStatus.class);
+        };
+    }
+
+    public boolean canMoveTo(OrderStatus target) {
+        return next().contains(target);
+    }
+
+    // status names an order may be in for a move to this status, for conditional updates
+    public List<String> sources() {
+        List<String> from = new ArrayList<>();
+        for (OrderStatus s : values()) {
+            if (s.canMoveTo(this)) from.add(s.name());
+        }
+        return from;
+    }
+}
@@ -2,11 +2,18 @@ package com.example.in_class_project.model;
 
 import lombok.*;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Version;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
 import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.Sharded;
+import org.springframework.data.mongodb.core.mapping.ShardingStrategy;
 
 import java.time.Instant;
 
 @Document(collection = "payments")
+@Sharded(shardKey = "userId", shardingStrategy = ShardingStrategy.HASH, immutableKey = true)
+@CompoundIndex(name = "userId_orderId", def = "{'userId': 1, 'orderId': 1}")
+@CompoundIndex(name = "status_createdAt", def = "{'status': 1, 'createdAt': 1, '_id': 1}")
 @Getter
 @Setter
 @NoArgsConstructor
@@ -17,10 +24,15 @@ public class Payment {
     @Id
     private String id;
 
+    private String userId;
     private String orderId;
     private Double amount;
-    private String status;
+    private String status;  // PENDING, SUCCESS, FAILED, REFUND_REQUIRED
     private String paymentId;
     private String razorpayOrderId;
     private Instant createdAt;
+
+    // incremented on each status change; see PaymentService.settle
+    @Version
+    private Long version;
 }
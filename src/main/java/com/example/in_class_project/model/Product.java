@@ -4,6 +4,8 @@ import lombok.*;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.mongodb.core.mapping.Document;
 
+import java.time.Instant;
+
 @Document(collection = "products")
 @Getter
 @Setter
@@ -19,4 +21,11 @@ public class Product {
     private String description;
     private Double price;
     private Integer stock;
+
+    // checkout admits buyers against in-memory leased stock, see FlashSaleInventory
+    private Boolean flashSale;
+
+    // bumped with $inc in the same update as every write, drives catalog ETags and Last-Modified
+    private Long version;
+    private Instant updatedAt;
 }
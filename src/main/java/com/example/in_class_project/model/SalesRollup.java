@@ -0,0 +1,28 @@
+package com.example.in_class_project.model;
+
+import lombok.*;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+
+// one bucket per product per hour; id is "<productId>:<bucket epoch second>"
+@Document(collection = "sales_rollup_hourly")
+@CompoundIndex(name = "bucket_productId", def = "{'bucket': 1, 'productId': 1}")
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class SalesRollup {
+
+    @Id
+    private String id;
+
+    private String productId;
+    private Instant bucket;
+    private Long unitsSold;
+    private Double revenue;
+    private Long orderCount;
+}
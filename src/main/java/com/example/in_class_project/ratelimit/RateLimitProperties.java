@@ -0,0 +1,43 @@
+package com.example.in_class_project.ratelimit;
+
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.Positive;
+import lombok.*;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.validation.annotation.Validated;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// bad limits fail startup instead of rejecting (burst 0) or breaking (rate <= 0) every request on a route
+@ConfigurationProperties(prefix = "ratelimit")
+@Validated
+@Getter
+@Setter
+public class RateLimitProperties {
+
+    private boolean enabled = true;
+    @Positive
+    private int maxBuckets = 100_000;
+    private Duration idleEvict = Duration.ofMinutes(10);
+
+    // keyed by route name; routes without an entry are not limited
+    private Map<String, @Valid Limit> routes = new LinkedHashMap<>(Map.of(
+            "cart-add", new Limit(10, 20),
+            "order-create", new Limit(1, 5),
+            "payment-create", new Limit(1, 5)));
+
+    @Getter
+    @Setter
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Limit {
+        @Positive
+        private double permitsPerSecond;
+        // a route configured without burst admits one request at a time rather than none
+        @Min(1)
+        private int burst = 1;
+    }
+}
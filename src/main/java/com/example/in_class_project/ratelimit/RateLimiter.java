@@ -0,0 +1,70 @@
+package com.example.in_class_project.ratelimit;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-process limiter with one token bucket per route and caller. Buckets idle
+ * for longer than ratelimit.idle-evict are dropped; a full map first evicts
+ * idle buckets and otherwise puts new callers on a shared per-route bucket.
+ */
+@Component
+public class RateLimiter {
+
+    private final RateLimitProperties props;
+    private final Map<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+    private final Map<String, TokenBucket> overflow = new ConcurrentHashMap<>();
+    private final Map<String, RateLimitProperties.Limit> limits;
+
+    public RateLimiter(RateLimitProperties props) {
+        this.props = props;
+        this.limits = new HashMap<>(props.getRoutes());
+    }
+
+    // 0 if the call may proceed, otherwise nanos until the caller gets a permit
+    public long acquire(String route, String key) {
+        if (!props.isEnabled()) return 0;
+        RateLimitProperties.Limit limit = limits.get(route);
+        if (limit == null) return 0;
+
+        long now = System.nanoTime();
+        String bucketKey = route + ':' + key;
+        TokenBucket bucket = buckets.get(bucketKey);
+        if (bucket == null) {
+            if (buckets.size() >= props.getMaxBuckets()) evictIdle(now);
+            bucket = buckets.size() < props.getMaxBuckets()
+                    ? buckets.computeIfAbsent(bucketKey, k -> newBucket(limit))
+                    : overflow.computeIfAbsent(route, k -> newBucket(limit));
+        }
+        return bucket.tryAcquire(now);
+    }
+
+    @Scheduled(fixedDelayString = "${ratelimit.evict-interval-ms:60000}")
+    public void evictIdle() {
+        evictIdle(System.nanoTime());
+    }
+
+    private void evictIdle(long now) {
+        long idleNanos = props.getIdleEvict().toNanos();
+        buckets.values().removeIf(b -> now - b.lastUsedNanos() > idleNanos);
+    }
+
+    private static TokenBucket newBucket(RateLimitProperties.Limit limit) {
+        return new TokenBucket(limit.getPermitsPerSecond(), limit.getBurst());
+    }
+
+    public static ResponseEntity<Map<String,String>> tooManyRequests(long waitNanos) {
+        long seconds = Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos + 999_999_999L));
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, Long.toString(seconds))
+                .body(Map.of("error", "rate limit exceeded"));
+    }
+}
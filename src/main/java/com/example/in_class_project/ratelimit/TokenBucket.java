@@ -0,0 +1,41 @@
+package com.example.in_class_project.ratelimit;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket kept as a single "theoretical arrival time" (GCRA): each permit
+ * pushes it forward by one interval, and a request is admitted while it stays
+ * within burst intervals of now. One CAS per admitted request, no locks and no
+ * allocation.
+ */
+public class TokenBucket {
+
+    private final long intervalNanos;
+    private final long toleranceNanos;
+    private final AtomicLong arrival = new AtomicLong(Long.MIN_VALUE);
+    private volatile long lastUsedNanos;
+
+    public TokenBucket(double permitsPerSecond, int burst) {
+        if (!(permitsPerSecond > 0) || burst < 1)
+            throw new IllegalArgumentException("need permitsPerSecond > 0 and burst >= 1, got " + permitsPerSecond + "/" + burst);
+        this.intervalNanos = (long) (1_000_000_000L / permitsPerSecond);
+        this.toleranceNanos = intervalNanos * burst;
+    }
+
+    // 0 if a permit was taken, otherwise how long until one is available
+    public long tryAcquire(long nowNanos) {
+        lastUsedNanos = nowNanos;
+        while (true) {
+            long current = arrival.get();
+            long base = current == Long.MIN_VALUE || current - nowNanos < 0 ? nowNanos : current;
+            long next = base + intervalNanos;
+            long ahead = next - nowNanos;
+            if (ahead > toleranceNanos) return ahead - toleranceNanos;
+            if (arrival.compareAndSet(current, next)) return 0;
+        }
+    }
+
+    public long lastUsedNanos() {
+        return lastUsedNanos;
+    }
+}
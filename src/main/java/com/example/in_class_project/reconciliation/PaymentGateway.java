@@ -0,0 +1,17 @@
+package com.example.in_class_project.reconciliation;
+
+import java.util.Optional;
+
+// what the gateway currently says about a gateway order; the seam the reconciler is tested through
+public interface PaymentGateway {
+
+    /**
+     * Settled state of the payments made against the gateway order: captured or
+     * authorized if any attempt got that far, failed if every attempt failed, and
+     * empty while the customer hasn't paid yet.
+     */
+    Optional<GatewayPayment> settledPayment(String razorpayOrderId) throws Exception;
+
+    record GatewayPayment(String paymentId, String status) {
+    }
+}
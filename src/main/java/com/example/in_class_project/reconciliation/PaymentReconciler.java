@@ -0,0 +1,197 @@
+package com.example.in_class_project.reconciliation;
+
+import com.example.in_class_project.model.Payment;
+import com.example.in_class_project.service.PaymentService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Catches payments whose webhook never arrived. Pending payments older than
+ * payments.reconcile.min-age-minutes are paged by createdAt, their gateway state
+ * is looked up in parallel batches, and anything settled is applied through
+ * PaymentService.handleWebhook exactly as if the webhook had been delivered.
+ */
+@Service
+@ConditionalOnProperty(name = "payments.reconcile.enabled", havingValue = "true", matchIfMissing = true)
+public class PaymentReconciler {
+
+    private static final Logger log = LoggerFactory.getLogger(PaymentReconciler.class);
+
+    private final MongoTemplate mongoTemplate;
+    private final PaymentService paymentService;
+    private final PaymentGateway gateway;
+    private final Duration minAge;
+    private final int batchSize;
+    private final int concurrency;
+    private final ThreadPoolExecutor workers;
+    private final Timer batchTimer;
+    private final Counter paid;
+    private final Counter failed;
+    private final Counter unsettled;
+    private final Counter errors;
+
+    public PaymentReconciler(MongoTemplate mongoTemplate,
+                             PaymentService paymentService,
+                             PaymentGateway gateway,
+                             MeterRegistry meterRegistry,
+                             @Value("${payments.reconcile.min-age-minutes:15}") long minAgeMinutes,
+                             @Value("${payments.reconcile.batch-size:50}") int batchSize,
+                             @Value("${payments.reconcile.concurrency:32}") int concurrency) {
+        this.mongoTemplate = mongoTemplate;
+        this.paymentService = paymentService;
+        this.gateway = gateway;
+        this.minAge = Duration.ofMinutes(minAgeMinutes);
+        this.batchSize = batchSize;
+        this.concurrency = concurrency;
+        // bounded both ways: at most `concurrency` gateway calls in flight and one page of batches queued
+        this.workers = new ThreadPoolExecutor(concurrency, concurrency, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(concurrency), new ThreadPoolExecutor.CallerRunsPolicy());
+        this.batchTimer = Timer.builder("payments.reconcile.batch")
+                .description("Time to check one batch of pending payments against the gateway")
+                .register(meterRegistry);
+        this.paid = outcome(meterRegistry, "paid");
+        this.failed = outcome(meterRegistry, "failed");
+        this.unsettled = outcome(meterRegistry, "unsettled");
+        this.errors = outcome(meterRegistry, "error");
+    }
+
+    public record Report(int checked, int corrected, long millis) {
+
+        public double perSecond() {
+            return millis == 0 ? checked : checked * 1000.0 / millis;
+        }
+    }
+
+    @Scheduled(initialDelayString = "${payments.reconcile.initial-delay-ms:120000}",
+            fixedDelayString = "${payments.reconcile.interval-ms:300000}")
+    public void sweep() {
+        Report r = reconcileOlderThan(Instant.now().minus(minAge));
+        if (r.checked() > 0) {
+            log.info("reconciled {} pending payments in {} ms ({}/s), {} corrected",
+                    r.checked(), r.millis(), Math.round(r.perSecond()), r.corrected());
+        }
+    }
+
+    public Report reconcileOlderThan(Instant cutoff) {
+        long start = System.nanoTime();
+        int pageSize = batchSize * concurrency;
+        int total = 0;
+        int corrected = 0;
+        Payment last = null;
+        while (true) {
+            List<Payment> page = mongoTemplate.find(pendingAfter(last, cutoff).limit(pageSize), Payment.class);
+            if (page.isEmpty()) break;
+
+            List<Future<Integer>> pending = new ArrayList<>();
+            for (int i = 0; i < page.size(); i += batchSize) {
+                List<Payment> batch = page.subList(i, Math.min(i + batchSize, page.size()));
+                pending.add(workers.submit(() -> reconcileBatch(batch)));
+            }
+            for (Future<Integer> f : pending) {
+                corrected += await(f);
+            }
+            total += page.size();
+            last = page.get(page.size() - 1);
+            if (page.size() < pageSize) break;
+        }
+        return new Report(total, corrected, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    // keyset paging on (createdAt, _id): payments left pending don't come round again, corrected ones don't shift the pages
+    private static Query pendingAfter(Payment last, Instant cutoff) {
+        Criteria c = Criteria.where("status").is("PENDING").and("createdAt").lt(cutoff);
+        if (last != null) {
+            c = c.orOperator(
+                    Criteria.where("createdAt").gt(last.getCreatedAt()),
+                    Criteria.where("createdAt").is(last.getCreatedAt()).and("_id").gt(last.getId()));
+        }
+        Query q = Query.query(c).with(Sort.by("createdAt", "_id"));
+        q.fields().include("_id").include("createdAt").include("razorpayOrderId");
+        return q;
+    }
+
+    private int reconcileBatch(List<Payment> batch) {
+        Timer.Sample sample = Timer.start();
+        int corrected = 0;
+        try {
+            for (Payment p : batch) {
+                if (reconcile(p)) corrected++;
+            }
+        } finally {
+            sample.stop(batchTimer);
+        }
+        return corrected;
+    }
+
+    private boolean reconcile(Payment p) {
+        try {
+            Optional<PaymentGateway.GatewayPayment> settled = p.getRazorpayOrderId() == null
+                    ? Optional.empty()
+                    : gateway.settledPayment(p.getRazorpayOrderId());
+            if (settled.isEmpty()) {
+                unsettled.increment();
+                return false;
+            }
+
+            PaymentGateway.GatewayPayment gp = settled.get();
+            if ("failed".equals(gp.status())) {
+                paymentService.handleWebhook(gp.paymentId(), p.getRazorpayOrderId(), "failed");
+                failed.increment();
+            } else {
+                paymentService.handleWebhook(gp.paymentId(), p.getRazorpayOrderId(), "captured");
+                paid.increment();
+            }
+            return true;
+        } catch (Exception e) {
+            errors.increment();
+            log.warn("could not reconcile payment {}: {}", p.getId(), e.getMessage());
+            return false;
+        }
+    }
+
+    private int await(Future<Integer> f) {
+        try {
+            return f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("payment reconciliation interrupted");
+        } catch (ExecutionException e) {
+            throw new RuntimeException("reconciliation batch failed: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    private static Counter outcome(MeterRegistry registry, String outcome) {
+        return Counter.builder("payments.reconcile.payments")
+                .description("Pending payments looked at by reconciliation, by outcome")
+                .tag("outcome", outcome)
+                .register(registry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        workers.shutdown();
+    }
+}
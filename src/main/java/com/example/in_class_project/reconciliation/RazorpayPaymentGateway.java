@@ -0,0 +1,38 @@
+package com.example.in_class_project.reconciliation;
+
+import com.razorpay.Payment;
+import com.razorpay.RazorpayClient;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.stereotype.Component;
+
+import java.util.Optional;
+
+@Component
+public class RazorpayPaymentGateway implements PaymentGateway {
+
+    private final ObjectProvider<RazorpayClient> razorpayClient;
+
+    public RazorpayPaymentGateway(ObjectProvider<RazorpayClient> razorpayClient) {
+        this.razorpayClient = razorpayClient;
+    }
+
+    @Override
+    public Optional<GatewayPayment> settledPayment(String razorpayOrderId) throws Exception {
+        GatewayPayment failed = null;
+        boolean allFailed = true;
+        for (Payment attempt : razorpayClient.getObject().orders.fetchPayments(razorpayOrderId)) {
+            String status = attempt.get("status");
+            String id = attempt.get("id");
+            // a retry after a failed attempt can still succeed, so a success anywhere wins
+            if ("captured".equals(status) || "authorized".equals(status)) {
+                return Optional.of(new GatewayPayment(id, status));
+            }
+            if ("failed".equals(status)) {
+                failed = new GatewayPayment(id, status);
+            } else {
+                allFailed = false;
+            }
+        }
+        return allFailed ? Optional.ofNullable(failed) : Optional.empty();
+    }
+}
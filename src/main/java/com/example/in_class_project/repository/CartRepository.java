@@ -1,9 +1,11 @@
 package com.example.in_class_project.repository;
 
 import com.example.in_class_project.model.CartItem;
+import com.example.in_class_project.repository.projection.CartLineView;
 import org.springframework.data.mongodb.repository.MongoRepository;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -12,7 +14,11 @@ public interface CartRepository extends MongoRepository<CartItem, String> {
 
     List<CartItem> findByUserId(String userId);
 
+    List<CartLineView> findLinesByUserId(String userId);
+
     void deleteByUserId(String userId);
 
+    void deleteByUserIdAndIdIn(String userId, Collection<String> ids);
+
     Optional<CartItem> findByUserIdAndProductId(String userId, String productId);
 }
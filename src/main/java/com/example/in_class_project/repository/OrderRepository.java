@@ -1,6 +1,8 @@
 package com.example.in_class_project.repository;
 
 import com.example.in_class_project.model.Order;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.mongodb.repository.MongoRepository;
 import org.springframework.stereotype.Repository;
 
@@ -10,4 +12,6 @@ import java.util.List;
 public interface OrderRepository extends MongoRepository<Order, String> {
 
     List<Order> findByUserId(String userId);
+
+    Slice<Order> findByUserIdOrderByCreatedAtDesc(String userId, Pageable pageable);
 }
@@ -0,0 +1,9 @@
+package com.example.in_class_project.repository.projection;
+
+// just what pricing a cart needs; Spring Data only fetches these fields
+public interface CartLineView {
+
+    String getProductId();
+
+    Integer getQuantity();
+}
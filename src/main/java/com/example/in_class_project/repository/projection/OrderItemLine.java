@@ -0,0 +1,4 @@
+package com.example.in_class_project.repository.projection;
+
+public record OrderItemLine(String productId, Integer quantity, Double price) {
+}
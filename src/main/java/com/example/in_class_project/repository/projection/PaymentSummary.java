@@ -0,0 +1,4 @@
+package com.example.in_class_project.repository.projection;
+
+public record PaymentSummary(String id, String status, Double amount, String paymentId) {
+}
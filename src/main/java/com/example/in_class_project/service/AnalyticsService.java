@@ -0,0 +1,178 @@
+package com.example.in_class_project.service;
+
+import com.example.in_class_project.model.Order;
+import com.example.in_class_project.model.OrderItem;
+import com.example.in_class_project.model.Payment;
+import com.example.in_class_project.model.Product;
+import com.example.in_class_project.model.SalesRollup;
+import com.example.in_class_project.repository.ProductRepository;
+import com.example.in_class_project.repository.projection.OrderItemLine;
+import com.example.in_class_project.sharding.ShardKeys;
+import org.bson.Document;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.DateOperators;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.*;
+
+/**
+ * Sales and inventory reporting. Paid orders are folded into hourly per-product
+ * buckets as they happen, so dashboards aggregate over buckets in the requested
+ * range instead of scanning orders.
+ */
+@Service
+public class AnalyticsService {
+
+    private final MongoTemplate mongoTemplate;
+    private final ProductRepository productRepo;
+
+    public AnalyticsService(MongoTemplate mongoTemplate,
+                            ProductRepository productRepo) {
+        this.mongoTemplate = mongoTemplate;
+        this.productRepo = productRepo;
+    }
+
+    // called once per order on its transition to PAID
+    public void recordPaidOrder(Order order) {
+        List<OrderItemLine> items = mongoTemplate.query(OrderItem.class).as(OrderItemLine.class)
+                .matching(ShardKeys.byParent("orderId", order.getId()))
+                .all();
+        if (items.isEmpty()) return;
+
+        Instant bucket = order.getCreatedAt().truncatedTo(ChronoUnit.HOURS);
+        BulkOperations ops = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, SalesRollup.class);
+        for (OrderItemLine it : items) {
+            double price = it.price() == null ? 0 : it.price();
+            ops.upsert(Query.query(Criteria.where("_id").is(rollupId(it.productId(), bucket))),
+                    new Update().setOnInsert("productId", it.productId())
+                            .setOnInsert("bucket", bucket)
+                            .inc("unitsSold", it.quantity())
+                            .inc("revenue", price * it.quantity())
+                            .inc("orderCount", 1));
+        }
+        ops.execute();
+    }
+
+    public List<Document> revenuePerDay(Instant from, Instant to) {
+        Aggregation agg = newAggregation(
+                match(inRange(from, to)),
+                project("revenue", "unitsSold")
+                        .and(DateOperators.DateToString.dateOf("bucket").toString("%Y-%m-%d")).as("day"),
+                group("day").sum("revenue").as("revenue").sum("unitsSold").as("unitsSold"),
+                project("revenue", "unitsSold").and("day").previousOperation(),
+                sort(Sort.Direction.ASC, "day"));
+        return mongoTemplate.aggregate(agg, SalesRollup.class, Document.class).getMappedResults();
+    }
+
+    public List<Document> topProducts(Instant from, Instant to, int limit) {
+        Aggregation agg = newAggregation(
+                match(inRange(from, to)),
+                group("productId").sum("unitsSold").as("unitsSold")
+                        .sum("revenue").as("revenue")
+                        .sum("orderCount").as("orderCount"),
+                project("unitsSold", "revenue", "orderCount").and("productId").previousOperation(),
+                sort(Sort.Direction.DESC, "unitsSold"),
+                limit(limit));
+        return mongoTemplate.aggregate(agg, SalesRollup.class, Document.class).getMappedResults();
+    }
+
+    /**
+     * Units sold in the range divided by average inventory, where average inventory
+     * is approximated from current stock and stock before those sales.
+     */
+    public List<Map<String,Object>> stockTurnover(Instant from, Instant to) {
+        Aggregation agg = newAggregation(
+                match(inRange(from, to)),
+                group("productId").sum("unitsSold").as("unitsSold"),
+                sort(Sort.Direction.DESC, "unitsSold"));
+        List<Document> sold = mongoTemplate.aggregate(agg, SalesRollup.class, Document.class).getMappedResults();
+
+        List<String> ids = new ArrayList<>();
+        for (Document d : sold) ids.add(d.getString("_id"));
+        Map<String, Integer> stock = new HashMap<>();
+        for (Product p : productRepo.findAllById(ids)) {
+            stock.put(p.getId(), p.getStock() == null ? 0 : p.getStock());
+        }
+
+        List<Map<String,Object>> out = new ArrayList<>();
+        for (Document d : sold) {
+            String productId = d.getString("_id");
+            long units = ((Number) d.get("unitsSold")).longValue();
+            int current = stock.getOrDefault(productId, 0);
+            double avgInventory = current + units / 2.0;
+
+            Map<String,Object> m = new LinkedHashMap<>();
+            m.put("productId", productId);
+            m.put("unitsSold", units);
+            m.put("currentStock", current);
+            m.put("turnover", avgInventory == 0 ? 0 : units / avgInventory);
+            out.add(m);
+        }
+        return out;
+    }
+
+    public List<Document> paymentSummary(Instant from, Instant to) {
+        Aggregation agg = newAggregation(
+                match(Criteria.where("createdAt").gte(from).lt(to)),
+                group("status").count().as("count").sum("amount").as("amount"),
+                project("count", "amount").and("status").previousOperation());
+        return mongoTemplate.aggregate(agg, Payment.class, Document.class).getMappedResults();
+    }
+
+    /**
+     * Rebuilds the hourly buckets in the range from orders and order_items, e.g. after
+     * a backfill or if a rollup update was lost. Each recomputed bucket replaces the
+     * stored one in place, so readers never see the range empty or half rebuilt, and a
+     * failed run leaves the previous rollups. Nothing is deleted: PAID is final, so a
+     * bucket can't lose all its orders.
+     */
+    public void rebuild(Instant from, Instant to) {
+        String rollups = mongoTemplate.getCollectionName(SalesRollup.class);
+        List<Document> pipeline = List.of(
+                new Document("$match", new Document("status", "PAID")
+                        .append("createdAt", new Document("$gte", Date.from(from)).append("$lt", Date.from(to)))),
+                new Document("$lookup", new Document("from", mongoTemplate.getCollectionName(OrderItem.class))
+                        .append("localField", "_id")
+                        .append("foreignField", "orderId")
+                        .append("as", "items")),
+                new Document("$unwind", "$items"),
+                new Document("$group", new Document("_id", new Document("productId", "$items.productId")
+                        .append("bucket", new Document("$dateTrunc", new Document("date", "$createdAt").append("unit", "hour"))))
+                        .append("unitsSold", new Document("$sum", "$items.quantity"))
+                        .append("revenue", new Document("$sum", new Document("$multiply", List.of("$items.price", "$items.quantity"))))
+                        .append("orderCount", new Document("$sum", 1))),
+                new Document("$project", new Document("_id", new Document("$concat", List.of("$_id.productId", ":",
+                        new Document("$toString", new Document("$toLong",
+                                new Document("$divide", List.of(new Document("$toLong", "$_id.bucket"), 1000)))))))
+                        .append("productId", "$_id.productId")
+                        .append("bucket", "$_id.bucket")
+                        .append("unitsSold", 1)
+                        .append("revenue", 1)
+                        .append("orderCount", 1)),
+                new Document("$merge", new Document("into", rollups)
+                        .append("on", "_id")
+                        .append("whenMatched", "replace")
+                        .append("whenNotMatched", "insert")));
+        mongoTemplate.getCollection(mongoTemplate.getCollectionName(Order.class))
+                .aggregate(pipeline)
+                .toCollection();
+    }
+
+    private static Criteria inRange(Instant from, Instant to) {
+        return Criteria.where("bucket").gte(from).lt(to);
+    }
+
+    private static String rollupId(String productId, Instant bucket) {
+        return productId + ":" + bucket.getEpochSecond();
+    }
+}
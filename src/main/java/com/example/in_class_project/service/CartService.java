@@ -1,10 +1,14 @@
 package com.example.in_class_project.service;
 
 import com.example.in_class_project.dto.AddToCartRequest;
+import com.example.in_class_project.inventory.FlashSaleInventory;
 import com.example.in_class_project.model.CartItem;
 import com.example.in_class_project.model.Product;
 import com.example.in_class_project.repository.CartRepository;
 import com.example.in_class_project.repository.ProductRepository;
+import com.example.in_class_project.sharding.ShardKeys;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.stereotype.Service;
 
 import java.util.List;
@@ -15,18 +19,41 @@ public class CartService {
 
     private final CartRepository cartRepo;
     private final ProductRepository productRepo;
+    private final CartTotalService totals;
+    private final MongoTemplate mongoTemplate;
+    private final FlashSaleInventory flashSale;
+    private final WriteBehindCartStore store; // null unless cart.write-behind.enabled=true
 
-    public CartService(CartRepository cartRepo, ProductRepository productRepo) {
+    public CartService(CartRepository cartRepo,
+                       ProductRepository productRepo,
+                       CartTotalService totals,
+                       MongoTemplate mongoTemplate,
+                       FlashSaleInventory flashSale,
+                       ObjectProvider<WriteBehindCartStore> store) {
         this.cartRepo = cartRepo;
         this.productRepo = productRepo;
+        this.totals = totals;
+        this.mongoTemplate = mongoTemplate;
+        this.flashSale = flashSale;
+        this.store = store.getIfAvailable();
     }
 
     public CartItem add(AddToCartRequest req) {
         Optional<Product> p = productRepo.findById(req.getProductId());
         if (p.isEmpty()) throw new RuntimeException("product not found");
         Product prod = p.get();
-        if (prod.getStock() == null || prod.getStock() < req.getQuantity())
+        long stock = prod.getStock() == null ? 0 : prod.getStock();
+        // during a sale part of the stock sits in this node's lease rather than on the document
+        if (flashSale.isActive(prod.getId())) stock += flashSale.available(prod.getId());
+        if (stock < req.getQuantity())
             throw new RuntimeException("not enough stock");
+        double price = prod.getPrice() == null ? 0 : prod.getPrice();
+
+        if (store != null) {
+            WriteBehindCartStore.LineChange change = store.add(req.getUserId(), req.getProductId(), req.getQuantity());
+            store.applyTotals(req.getUserId(), price * change.qtyDelta(), change.lineDelta());
+            return change.item();
+        }
 
         Optional<CartItem> existing = cartRepo.findByUserIdAndProductId(req.getUserId(), req.getProductId());
         CartItem item;
@@ -35,42 +62,74 @@ public class CartService {
             item.setQuantity(item.getQuantity() + req.getQuantity());
         } else {
             item = new CartItem();
+            item.setId(ShardKeys.newId(req.getUserId()));
             item.setUserId(req.getUserId());
             item.setProductId(req.getProductId());
             item.setQuantity(req.getQuantity());
         }
-        return cartRepo.save(item);
+        CartItem saved = cartRepo.save(item);
+        totals.apply(req.getUserId(), price * req.getQuantity(), existing.isPresent() ? 0 : 1);
+        return saved;
     }
 
     public List<CartItem> getUserCart(String userId) {
+        if (store != null) return store.items(userId);
         return cartRepo.findByUserId(userId);
     }
 
     public void clear(String userId) {
-        cartRepo.deleteByUserId(userId);
+        if (store != null) {
+            store.clear(userId);
+        } else {
+            cartRepo.deleteByUserId(userId);
+        }
+        totals.reset(userId);
     }
 
     public void removeItem(String cartItemId) {
-        cartRepo.deleteById(cartItemId);
+        if (store != null) {
+            store.remove(cartItemId).ifPresent(change -> store.applyTotals(change.item().getUserId(),
+                    priceOf(change.item().getProductId()) * change.qtyDelta(), change.lineDelta()));
+            return;
+        }
+        CartItem item = mongoTemplate.findAndRemove(ShardKeys.byId(cartItemId), CartItem.class);
+        if (item == null) return;
+        totals.apply(item.getUserId(), -priceOf(item.getProductId()) * item.getQuantity(), -1);
+    }
+
+    // pushes any buffered edits for this user to cart_items; no-op without write-behind
+    public void flush(String userId) {
+        if (store != null) store.flush(userId);
     }
 
     public CartItem updateQty(String cartItemId, int qty) {
-        Optional<CartItem> c = cartRepo.findById(cartItemId);
-        if (c.isEmpty()) throw new RuntimeException("cart item not found");
-        CartItem item = c.get();
+        if (store != null) {
+            WriteBehindCartStore.LineChange change = store.updateQty(cartItemId, qty);
+            store.applyTotals(change.item().getUserId(), priceOf(change.item().getProductId()) * change.qtyDelta(), 0);
+            return change.item();
+        }
+        CartItem item = mongoTemplate.findOne(ShardKeys.byId(cartItemId), CartItem.class);
+        if (item == null) throw new RuntimeException("cart item not found");
+        int qtyDelta = qty - item.getQuantity();
         item.setQuantity(qty);
-        return cartRepo.save(item);
+        CartItem saved = cartRepo.save(item);
+        totals.apply(item.getUserId(), priceOf(item.getProductId()) * qtyDelta, 0);
+        return saved;
+    }
+
+    public void onPriceChange(String productId, double oldPrice, double newPrice) {
+        // fan-out works off cart_items, so buffered lines have to be there first
+        if (store != null) store.flushAll();
+        totals.onPriceChange(productId, oldPrice, newPrice);
     }
 
     public double calcTotal(String userId) {
-        List<CartItem> items = cartRepo.findByUserId(userId);
-        double total = 0;
-        for (CartItem ci : items) {
-            Optional<Product> p = productRepo.findById(ci.getProductId());
-            if (p.isPresent() && p.get().getPrice() != null) {
-                total += p.get().getPrice() * ci.getQuantity();
-            }
-        }
-        return total;
+        double total = totals.get(userId).getTotal();
+        if (store != null) total += store.pendingAmount(userId);
+        return Math.round(total * 100) / 100.0;
+    }
+
+    private double priceOf(String productId) {
+        return productRepo.findById(productId).map(Product::getPrice).orElse(0.0);
     }
 }
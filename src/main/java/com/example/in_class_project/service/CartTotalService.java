@@ -0,0 +1,187 @@
+package com.example.in_class_project.service;
+
+import com.example.in_class_project.model.Cart;
+import com.example.in_class_project.model.CartItem;
+import com.example.in_class_project.model.Product;
+import com.example.in_class_project.repository.CartRepository;
+import com.example.in_class_project.repository.ProductRepository;
+import com.example.in_class_project.repository.projection.CartLineView;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * Maintains the running total and line count in the carts collection so reading
+ * a cart total is a single lookup by id. Callers report deltas as lines change;
+ * price changes are fanned out to every cart holding the product.
+ */
+@Service
+public class CartTotalService {
+
+    private static final Logger log = LoggerFactory.getLogger(CartTotalService.class);
+    private static final double TOLERANCE = 0.005;
+
+    private final MongoTemplate mongoTemplate;
+    private final CartRepository cartRepo;
+    private final ProductRepository productRepo;
+    private final Counter mismatches;
+    // carts that disagreed on their last check, with the stored totals they were seen at
+    private final Map<String, Cart> suspected = new ConcurrentHashMap<>();
+
+    public CartTotalService(MongoTemplate mongoTemplate,
+                            CartRepository cartRepo,
+                            ProductRepository productRepo,
+                            MeterRegistry meterRegistry) {
+        this.mongoTemplate = mongoTemplate;
+        this.cartRepo = cartRepo;
+        this.productRepo = productRepo;
+        this.mismatches = Counter.builder("cart.totals.mismatches")
+                .description("Carts whose running total disagreed with a full recompute")
+                .register(meterRegistry);
+    }
+
+    public void apply(String userId, double amountDelta, int lineDelta) {
+        if (amountDelta == 0 && lineDelta == 0) return;
+        mongoTemplate.upsert(byId(userId),
+                new Update().inc("total", amountDelta).inc("lineCount", lineDelta).set("updatedAt", Instant.now()),
+                Cart.class);
+    }
+
+    // falls back to a one-off recompute for carts that predate the running totals; a read never creates an empty cart
+    public Cart get(String userId) {
+        Cart cart = mongoTemplate.findById(userId, Cart.class);
+        if (cart != null) return cart;
+        Cart actual = recompute(userId);
+        return actual.getLineCount() == 0 ? actual : initialise(userId, actual);
+    }
+
+    public void reset(String userId) {
+        mongoTemplate.remove(byId(userId), Cart.class);
+    }
+
+    public void onPriceChange(String productId, double oldPrice, double newPrice) {
+        double diff = newPrice - oldPrice;
+        if (diff == 0) return;
+
+        Query q = Query.query(Criteria.where("productId").is(productId));
+        q.fields().include("userId").include("quantity");
+        Map<String, Integer> qtyByUser = new HashMap<>();
+        for (CartItem line : mongoTemplate.find(q, CartItem.class)) {
+            qtyByUser.merge(line.getUserId(), line.getQuantity(), Integer::sum);
+        }
+        if (qtyByUser.isEmpty()) return;
+
+        BulkOperations ops = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Cart.class);
+        Instant now = Instant.now();
+        qtyByUser.forEach((userId, qty) ->
+                ops.updateOne(byId(userId), new Update().inc("total", diff * qty).set("updatedAt", now)));
+        ops.execute();
+    }
+
+    /**
+     * Recomputes the cart from its lines and current prices and repairs the stored
+     * totals if they drifted. An edit saves its line before it applies its delta, so
+     * a check that runs between the two sees a difference that is about to go away;
+     * repairing then would count that edit twice. So a cart is only repaired when it
+     * disagrees on two checks in a row with the stored totals untouched in between,
+     * and the repair is conditional on those same stored values.
+     *
+     * @return false if the cart disagreed with its lines
+     */
+    public boolean verify(String userId) {
+        Cart stored = mongoTemplate.findById(userId, Cart.class);
+        Cart actual = recompute(userId);
+        if (stored == null) {
+            suspected.remove(userId);
+            if (actual.getLineCount() > 0) initialise(userId, actual);
+            return actual.getLineCount() == 0;
+        }
+        if (Math.abs(stored.getTotal() - actual.getTotal()) < TOLERANCE
+                && stored.getLineCount().equals(actual.getLineCount())) {
+            suspected.remove(userId);
+            return true;
+        }
+        Cart seen = suspected.put(userId, stored);
+        if (seen == null || !sameStored(seen, stored)) return false;
+
+        suspected.remove(userId);
+        mismatches.increment();
+        log.warn("cart total drift for user {}: stored {} / {} lines, actual {} / {} lines", userId,
+                stored.getTotal(), stored.getLineCount(), actual.getTotal(), actual.getLineCount());
+        mongoTemplate.updateFirst(
+                Query.query(Criteria.where("_id").is(userId)
+                        .and("total").is(stored.getTotal())
+                        .and("lineCount").is(stored.getLineCount())
+                        .and("updatedAt").is(stored.getUpdatedAt())),
+                new Update().set("total", actual.getTotal())
+                        .set("lineCount", actual.getLineCount())
+                        .set("updatedAt", Instant.now()),
+                Cart.class);
+        return false;
+    }
+
+    @Scheduled(initialDelayString = "${cart.totals.check-initial-delay-ms:300000}",
+            fixedDelayString = "${cart.totals.check-interval-ms:900000}")
+    public void verifyAll() {
+        int drifted = 0;
+        Query ids = new Query();
+        ids.fields().include("_id");
+        // streamed so the sweep holds one cart id at a time, not the whole collection
+        try (Stream<Cart> carts = mongoTemplate.stream(ids, Cart.class)) {
+            for (Cart cart : (Iterable<Cart>) carts::iterator) {
+                if (!verify(cart.getId())) drifted++;
+            }
+        }
+        if (drifted > 0) log.info("running totals disagreed with the lines for {} carts", drifted);
+    }
+
+    public Cart recompute(String userId) {
+        List<CartLineView> lines = cartRepo.findLinesByUserId(userId);
+        Set<String> productIds = new HashSet<>();
+        for (CartLineView ci : lines) productIds.add(ci.getProductId());
+        Map<String, Double> prices = new HashMap<>();
+        for (Product p : productRepo.findAllById(productIds)) {
+            if (p.getPrice() != null) prices.put(p.getId(), p.getPrice());
+        }
+
+        double total = 0;
+        for (CartLineView ci : lines) {
+            total += prices.getOrDefault(ci.getProductId(), 0.0) * ci.getQuantity();
+        }
+        return Cart.builder().id(userId).total(total).lineCount(lines.size()).build();
+    }
+
+    private Cart initialise(String userId, Cart actual) {
+        // setOnInsert so a concurrent apply() that created the document first is kept
+        return mongoTemplate.findAndModify(byId(userId),
+                new Update().setOnInsert("total", actual.getTotal())
+                        .setOnInsert("lineCount", actual.getLineCount())
+                        .setOnInsert("updatedAt", Instant.now()),
+                FindAndModifyOptions.options().upsert(true).returnNew(true),
+                Cart.class);
+    }
+
+    private static boolean sameStored(Cart a, Cart b) {
+        return Objects.equals(a.getTotal(), b.getTotal())
+                && Objects.equals(a.getLineCount(), b.getLineCount())
+                && Objects.equals(a.getUpdatedAt(), b.getUpdatedAt());
+    }
+
+    private static Query byId(String userId) {
+        return Query.query(Criteria.where("_id").is(userId));
+    }
+}
@@ -0,0 +1,117 @@
+package com.example.in_class_project.service;
+
+import com.example.in_class_project.event.ProductChangedEvent;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Serialized catalog responses with their validators. Single products are keyed
+ * by id and dropped when that product changes; list and search responses are
+ * dropped on any product change. Only this node's writes (and, with
+ * changestream.enabled, other nodes' writes) drop entries, so every entry also
+ * expires after catalog.cache.ttl-ms, which bounds how long a node serves a
+ * product another node changed.
+ */
+@Component
+public class CatalogCache {
+
+    public record Entry(byte[] body, String etag, Instant lastModified) {
+    }
+
+    private final Map<String, Cached> products;
+    private final Map<String, Cached> lists;
+    private final long ttlNanos;
+    private final AtomicLong generation = new AtomicLong();
+    private final Counter hits;
+    private final Counter notModified;
+    private final Counter bytesServed;
+
+    public CatalogCache(MeterRegistry meterRegistry,
+                        @Value("${catalog.cache.max-products:10000}") int maxProducts,
+                        @Value("${catalog.cache.max-lists:500}") int maxLists,
+                        @Value("${catalog.cache.ttl-ms:5000}") long ttlMillis) {
+        this.products = lru(maxProducts);
+        this.lists = lru(maxLists);
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.hits = Counter.builder("catalog.cache.hits")
+                .description("Catalog responses served without reading Mongo")
+                .register(meterRegistry);
+        this.notModified = Counter.builder("catalog.http.not-modified")
+                .description("Catalog requests answered with 304")
+                .register(meterRegistry);
+        this.bytesServed = Counter.builder("catalog.http.bytes")
+                .description("Catalog response body bytes written")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    // read before loading from Mongo and pass to put(), so a change in between isn't cached as current
+    public long generation() {
+        return generation.get();
+    }
+
+    public Entry getProduct(String id) {
+        return hit(products.get(id));
+    }
+
+    public Entry getList(String key) {
+        return hit(lists.get(key));
+    }
+
+    public synchronized void putProduct(String id, Entry entry, long seenGeneration) {
+        if (generation.get() == seenGeneration) products.put(id, new Cached(entry, System.nanoTime() + ttlNanos));
+    }
+
+    public synchronized void putList(String key, Entry entry, long seenGeneration) {
+        if (generation.get() == seenGeneration) lists.put(key, new Cached(entry, System.nanoTime() + ttlNanos));
+    }
+
+    public void recordNotModified() {
+        notModified.increment();
+    }
+
+    public void recordServed(int bytes) {
+        bytesServed.increment(bytes);
+    }
+
+    @EventListener
+    public synchronized void onProductChanged(ProductChangedEvent event) {
+        generation.incrementAndGet();
+        products.remove(event.productId());
+        lists.clear();
+    }
+
+    public synchronized void invalidateAll() {
+        generation.incrementAndGet();
+        products.clear();
+        lists.clear();
+    }
+
+    private Entry hit(Cached cached) {
+        if (cached == null || System.nanoTime() - cached.expiresAt() > 0) return null;
+        hits.increment();
+        return cached.entry();
+    }
+
+    private static Map<String, Cached> lru(int maxEntries) {
+        return Collections.synchronizedMap(new LinkedHashMap<String, Cached>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Cached> eldest) {
+                return size() > maxEntries;
+            }
+        });
+    }
+
+    private record Cached(Entry entry, long expiresAt) {
+    }
+}
@@ -0,0 +1,161 @@
+package com.example.in_class_project.service;
+
+import com.example.in_class_project.model.Order;
+import com.example.in_class_project.model.OrderStatus;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+@Service
+@ConditionalOnProperty(name = "orders.expiry.enabled", havingValue = "true", matchIfMissing = true)
+public class OrderExpiryService {
+
+    private static final Logger log = LoggerFactory.getLogger(OrderExpiryService.class);
+    private static final List<String> EXPIRABLE = OrderStatus.EXPIRED.sources();
+    // final statuses whose stock goes back; both claim the release with stockReleased=true
+    private static final List<String> RELEASING = List.of(OrderStatus.CANCELLED.name(), OrderStatus.EXPIRED.name());
+
+    private final MongoTemplate mongoTemplate;
+    private final OrderService orderService;
+    private final Duration ttl;
+    private final int batchSize;
+    private final int concurrency;
+    private final ExecutorService workers;
+    private final Timer sweepTimer;
+    private final Counter expiredCounter;
+
+    public OrderExpiryService(MongoTemplate mongoTemplate,
+                              OrderService orderService,
+                              MeterRegistry meterRegistry,
+                              @Value("${orders.expiry.ttl-minutes:30}") long ttlMinutes,
+                              @Value("${orders.expiry.batch-size:200}") int batchSize,
+                              @Value("${orders.expiry.concurrency:4}") int concurrency) {
+        this.mongoTemplate = mongoTemplate;
+        this.orderService = orderService;
+        this.ttl = Duration.ofMinutes(ttlMinutes);
+        this.batchSize = batchSize;
+        this.concurrency = concurrency;
+        this.workers = Executors.newFixedThreadPool(concurrency);
+        this.sweepTimer = Timer.builder("orders.expiry.sweep")
+                .description("Duration of one pending-order expiry sweep")
+                .register(meterRegistry);
+        this.expiredCounter = Counter.builder("orders.expiry.expired")
+                .description("Orders moved to EXPIRED by the expiry sweep")
+                .register(meterRegistry);
+    }
+
+    @Scheduled(initialDelayString = "${orders.expiry.initial-delay-ms:60000}",
+            fixedDelayString = "${orders.expiry.sweep-interval-ms:60000}")
+    public void sweep() {
+        Timer.Sample sample = Timer.start();
+        try {
+            int retried = retryReleases();
+            if (retried > 0) log.info("retried stock release for {} cancelled or expired orders", retried);
+            int expired = expireOlderThan(Instant.now().minus(ttl));
+            if (expired > 0) log.info("expired {} stale orders", expired);
+        } finally {
+            sample.stop(sweepTimer);
+        }
+    }
+
+    public int expireOlderThan(Instant cutoff) {
+        int pageSize = batchSize * concurrency;
+        int total = 0;
+        while (true) {
+            // served by the status_createdAt index on orders
+            Query q = Query.query(Criteria.where("status").in(EXPIRABLE).and("createdAt").lt(cutoff))
+                    .with(Sort.by("createdAt"))
+                    .limit(pageSize);
+            q.fields().include("_id");
+            List<Order> page = mongoTemplate.find(q, Order.class);
+            if (page.isEmpty()) break;
+
+            List<Future<Integer>> pending = new ArrayList<>();
+            for (int i = 0; i < page.size(); i += batchSize) {
+                List<Order> batch = page.subList(i, Math.min(i + batchSize, page.size()));
+                pending.add(workers.submit(() -> expireBatch(batch)));
+            }
+            int expiredInPage = 0;
+            for (Future<Integer> f : pending) {
+                expiredInPage += await(f);
+            }
+            total += expiredInPage;
+
+            // a short page means we reached the end; an empty claim means everything left was taken by someone else
+            if (page.size() < pageSize || expiredInPage == 0) break;
+        }
+        return total;
+    }
+
+    private int expireBatch(List<Order> batch) {
+        List<Order> claimed = new ArrayList<>();
+        for (Order o : batch) {
+            // only flips the order if it is still unpaid, so a webhook that got there first wins;
+            // stockReleased=true makes the release ours, releaseStockOf hands back whatever fails
+            long modified = mongoTemplate.updateFirst(
+                    Query.query(Criteria.where("_id").is(o.getId()).and("status").in(EXPIRABLE)),
+                    new Update().set("status", OrderStatus.EXPIRED.name()).set("stockReleased", true).inc("version", 1),
+                    Order.class).getModifiedCount();
+            if (modified == 1) claimed.add(o);
+        }
+        if (claimed.isEmpty()) return 0;
+
+        expiredCounter.increment(claimed.size());
+        orderService.releaseStockOf(claimed);
+        return claimed.size();
+    }
+
+    // cancelled or expired orders whose stock release failed; each is claimed again before retrying so only one node releases it
+    public int retryReleases() {
+        Query q = Query.query(Criteria.where("status").in(RELEASING).and("stockReleased").is(false))
+                .limit(batchSize);
+        q.fields().include("_id").include("stockOwed");
+        List<Order> claimed = new ArrayList<>();
+        for (Order o : mongoTemplate.find(q, Order.class)) {
+            long modified = mongoTemplate.updateFirst(
+                    Query.query(Criteria.where("_id").is(o.getId()).and("stockReleased").is(false)),
+                    new Update().set("stockReleased", true),
+                    Order.class).getModifiedCount();
+            if (modified == 1) claimed.add(o);
+        }
+        if (claimed.isEmpty()) return 0;
+        return claimed.size() - orderService.releaseStockOf(claimed).size();
+    }
+
+    private int await(Future<Integer> f) {
+        try {
+            return f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("expiry sweep interrupted");
+        } catch (ExecutionException e) {
+            throw new RuntimeException("expiry batch failed: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        workers.shutdown();
+    }
+}
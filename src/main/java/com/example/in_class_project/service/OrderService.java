@@ -1,14 +1,32 @@
 package com.example.in_class_project.service;
 
 import com.example.in_class_project.dto.CreateOrderRequest;
-import com.example.in_class_project.model.CartItem;
+import com.example.in_class_project.event.ProductChangedEvent;
+import com.example.in_class_project.inventory.FlashSaleInventory;
 import com.example.in_class_project.model.Order;
 import com.example.in_class_project.model.OrderItem;
+import com.example.in_class_project.model.OrderStatus;
 import com.example.in_class_project.model.Product;
 import com.example.in_class_project.repository.CartRepository;
 import com.example.in_class_project.repository.OrderItemRepository;
 import com.example.in_class_project.repository.OrderRepository;
 import com.example.in_class_project.repository.ProductRepository;
+import com.example.in_class_project.repository.projection.CartLineView;
+import com.example.in_class_project.repository.projection.OrderItemLine;
+import com.example.in_class_project.sharding.ShardKeys;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
 
 import java.time.Instant;
@@ -17,101 +35,254 @@ import java.util.*;
 @Service
 public class OrderService {
 
+    private static final Logger log = LoggerFactory.getLogger(OrderService.class);
+
+    private static final int MAX_TRANSITION_ATTEMPTS = 5;
+
     private final OrderRepository orderRepo;
     private final OrderItemRepository orderItemRepo;
     private final CartRepository cartRepo;
     private final ProductRepository productRepo;
     private final CartService cartService;
+    private final MongoTemplate mongoTemplate;
+    private final ApplicationEventPublisher events;
+    private final FlashSaleInventory flashSale;
 
     public OrderService(OrderRepository orderRepo,
                         OrderItemRepository orderItemRepo,
                         CartRepository cartRepo,
                         ProductRepository productRepo,
-                        CartService cartService) {
+                        CartService cartService,
+                        MongoTemplate mongoTemplate,
+                        ApplicationEventPublisher events,
+                        FlashSaleInventory flashSale) {
         this.orderRepo = orderRepo;
         this.orderItemRepo = orderItemRepo;
         this.cartRepo = cartRepo;
         this.productRepo = productRepo;
         this.cartService = cartService;
+        this.mongoTemplate = mongoTemplate;
+        this.events = events;
+        this.flashSale = flashSale;
     }
 
     public Order createOrder(CreateOrderRequest req) {
         String userId = req.getUserId();
-        List<CartItem> cart = cartRepo.findByUserId(userId);
+        cartService.flush(userId);
+        List<CartLineView> cart = cartRepo.findLinesByUserId(userId);
         if (cart.isEmpty()) throw new RuntimeException("cart empty");
 
-        for (CartItem c : cart) {
-            Optional<Product> p = productRepo.findById(c.getProductId());
-            if (p.isEmpty()) throw new RuntimeException("product not found: " + c.getProductId());
-            if (p.get().getStock() == null || p.get().getStock() < c.getQuantity())
-                throw new RuntimeException("stock low for: " + p.get().getName());
-        }
-
-        double total = cartService.calcTotal(userId);
+        // products are read once here and reused for the total and the stock update below
+        Map<String,Product> products = new HashMap<>();
+        // flash-sale units already taken in memory, handed back if checkout fails
+        Map<String,Integer> admitted = new HashMap<>();
+        // regular stock already taken from the product documents, likewise handed back
+        List<OrderItemLine> reserved = new ArrayList<>();
+        double total = 0;
+        Order savedOrder;
+        try {
+            for (CartLineView c : cart) {
+                Product prod;
+                if (flashSale.isActive(c.getProductId())) {
+                    prod = flashSale.product(c.getProductId())
+                            .orElseThrow(() -> new RuntimeException("product not found: " + c.getProductId()));
+                    if (!flashSale.tryTake(c.getProductId(), c.getQuantity()))
+                        throw new RuntimeException("stock low for: " + prod.getName());
+                    admitted.put(c.getProductId(), c.getQuantity());
+                } else {
+                    // conditional $inc, never a full save, so concurrent checkouts and flash-sale leases can't oversell
+                    prod = mongoTemplate.findAndModify(
+                            Query.query(Criteria.where("_id").is(c.getProductId()).and("stock").gte(c.getQuantity())),
+                            new Update().inc("stock", -c.getQuantity()).inc("version", 1).set("updatedAt", Instant.now()),
+                            Product.class);
+                    if (prod == null) {
+                        Product p = productRepo.findById(c.getProductId())
+                                .orElseThrow(() -> new RuntimeException("product not found: " + c.getProductId()));
+                        throw new RuntimeException("stock low for: " + p.getName());
+                    }
+                    reserved.add(new OrderItemLine(c.getProductId(), c.getQuantity(), prod.getPrice()));
+                }
+                products.put(c.getProductId(), prod);
+                if (prod.getPrice() != null) total += prod.getPrice() * c.getQuantity();
+            }
 
-        Order o = new Order();
-        o.setId(UUID.randomUUID().toString());
-        o.setUserId(userId);
-        o.setTotalAmount(total);
-        o.setStatus("CREATED");
-        o.setCreatedAt(Instant.now());
-        Order savedOrder = orderRepo.save(o);
+            Order o = new Order();
+            o.setId(ShardKeys.newId(userId));
+            o.setUserId(userId);
+            o.setTotalAmount(total);
+            o.setStatus(OrderStatus.CREATED.name());
+            o.setCreatedAt(Instant.now());
+            savedOrder = orderRepo.save(o);
+        } catch (RuntimeException e) {
+            admitted.forEach(flashSale::release);
+            Set<String> lost = releaseStock(reserved);
+            if (!lost.isEmpty()) log.warn("could not hand back reserved stock of {} after a failed checkout", lost);
+            throw e;
+        }
 
-        for (CartItem c : cart) {
-            Product p = productRepo.findById(c.getProductId()).get();
+        for (CartLineView c : cart) {
+            Product p = products.get(c.getProductId());
             OrderItem oi = new OrderItem();
-            oi.setId(UUID.randomUUID().toString());
+            oi.setId(ShardKeys.newId(userId));
+            oi.setUserId(userId);
             oi.setOrderId(savedOrder.getId());
             oi.setProductId(c.getProductId());
             oi.setQuantity(c.getQuantity());
             oi.setPrice(p.getPrice());
             orderItemRepo.save(oi);
-
-            p.setStock(p.getStock() - c.getQuantity());
-            productRepo.save(p);
         }
+        for (OrderItemLine r : reserved) events.publishEvent(new ProductChangedEvent(r.productId()));
 
         cartService.clear(userId);
         return savedOrder;
     }
 
+    // targeted at the owner's shard when the id carries the userId, see ShardKeys
     public Optional<Order> getOrder(String id) {
-        return orderRepo.findById(id);
+        return Optional.ofNullable(mongoTemplate.findOne(ShardKeys.byId(id), Order.class));
     }
 
-    public List<OrderItem> getOrderItems(String orderId) {
-        return orderItemRepo.findByOrderId(orderId);
+    public List<OrderItemLine> getOrderItemLines(String orderId) {
+        return mongoTemplate.query(OrderItem.class).as(OrderItemLine.class)
+                .matching(ShardKeys.byParent("orderId", orderId))
+                .all();
     }
 
     public List<Order> getUserOrders(String userId) {
         return orderRepo.findByUserId(userId);
     }
 
-    public Order updateStatus(String orderId, String status) {
-        Optional<Order> o = orderRepo.findById(orderId);
-        if (o.isEmpty()) throw new RuntimeException("order not found");
-        Order ord = o.get();
-        ord.setStatus(status);
-        return orderRepo.save(ord);
+    // newest first, one page at a time so a long history isn't materialised in one go
+    public Slice<Order> getUserOrders(String userId, int page, int size) {
+        return orderRepo.findByUserIdOrderByCreatedAtDesc(userId, PageRequest.of(page, size));
+    }
+
+    /**
+     * Moves the order to {@code target} if the state machine allows it from the
+     * status it is in. The write is conditional on the status and version that
+     * were read, so a concurrent change makes it miss; the order is then re-read
+     * and the move re-checked against the new status rather than overwriting it.
+     *
+     * @return the updated order, or empty if it already was in {@code target}
+     * @throws IllegalStateException if the move isn't allowed from the current status
+     * @throws OptimisticLockingFailureException if the order kept changing underneath us
+     */
+    public Optional<Order> transition(String orderId, OrderStatus target) {
+        return transition(orderId, target, new Update());
+    }
+
+    // as above, also writing the fields in {@code with} in the same conditional update
+    private Optional<Order> transition(String orderId, OrderStatus target, Update with) {
+        with.set("status", target.name()).inc("version", 1);
+        for (int attempt = 0; attempt < MAX_TRANSITION_ATTEMPTS; attempt++) {
+            Order current = getOrder(orderId).orElseThrow(() -> new RuntimeException("order not found"));
+            OrderStatus from = OrderStatus.valueOf(current.getStatus());
+            if (from == target) return Optional.empty();
+            if (!from.canMoveTo(target))
+                throw new IllegalStateException("cannot move order from " + from + " to " + target);
+
+            Order moved = mongoTemplate.findAndModify(
+                    Query.query(Criteria.where("_id").is(orderId)
+                            .and(ShardKeys.FIELD).is(current.getUserId())
+                            .and("status").is(from.name())
+                            .and("version").is(current.getVersion())),
+                    with,
+                    FindAndModifyOptions.options().returnNew(true),
+                    Order.class);
+            if (moved != null) return Optional.of(moved);
+        }
+        throw new OptimisticLockingFailureException("order " + orderId + " kept changing, gave up moving it to " + target);
     }
 
     public Order cancel(String orderId) {
-        Optional<Order> o = orderRepo.findById(orderId);
-        if (o.isEmpty()) throw new RuntimeException("order not found");
-        Order ord = o.get();
-        if (!ord.getStatus().equals("CREATED") && !ord.getStatus().equals("FAILED"))
-            throw new RuntimeException("cannot cancel in status " + ord.getStatus());
-
-        List<OrderItem> items = orderItemRepo.findByOrderId(orderId);
-        for (OrderItem it : items) {
-            Optional<Product> p = productRepo.findById(it.getProductId());
-            if (p.isPresent()) {
-                Product prod = p.get();
-                prod.setStock(prod.getStock() + it.getQuantity());
-                productRepo.save(prod);
+        // claims the order and its stock return in one write, so a concurrent expiry sweep can't release it twice;
+        // the order is cancelled either way, stock that fails to go back is left for the expiry sweep's retry
+        Order cancelled = transition(orderId, OrderStatus.CANCELLED, new Update().set("stockReleased", true))
+                .orElseThrow(() -> new IllegalStateException("order already cancelled"));
+
+        releaseStockOf(List.of(cancelled));
+        return cancelled;
+    }
+
+    /**
+     * Returns the units of each line to its product, one $inc per product.
+     *
+     * @return the products whose write the server rejected; their stock was not returned
+     */
+    public Set<String> releaseStock(List<OrderItemLine> items) {
+        Map<String,Integer> qtyByProduct = new HashMap<>();
+        for (OrderItemLine it : items) {
+            qtyByProduct.merge(it.productId(), it.quantity(), Integer::sum);
+        }
+        if (qtyByProduct.isEmpty()) return Set.of();
+
+        BulkOperations ops = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Product.class);
+        Instant now = Instant.now();
+        List<String> productIds = new ArrayList<>(qtyByProduct.keySet());
+        for (String productId : productIds) {
+            ops.updateOne(Query.query(Criteria.where("_id").is(productId)),
+                    new Update().inc("stock", qtyByProduct.get(productId)).inc("version", 1).set("updatedAt", now));
+        }
+        Set<String> failed = new HashSet<>();
+        try {
+            ops.execute();
+        } catch (BulkOperationException e) {
+            // unordered, so the writes not listed here were applied
+            e.getErrors().forEach(err -> failed.add(productIds.get(err.getIndex())));
+        }
+        for (String productId : productIds) {
+            if (!failed.contains(productId)) events.publishEvent(new ProductChangedEvent(productId));
+        }
+        return failed;
+    }
+
+    /**
+     * Returns the stock of orders whose release was already claimed (stockReleased=true
+     * written together with their final status), one bulk for the whole batch. An order
+     * with stockOwed only gets those products back. Products whose write failed are put
+     * on each order holding them as stockOwed with stockReleased back to false, so the
+     * expiry sweep retries just those and units that did land are never added twice.
+     *
+     * @return ids of the orders that still owe stock
+     */
+    public Set<String> releaseStockOf(List<Order> orders) {
+        Map<String,Order> byId = new HashMap<>();
+        for (Order o : orders) byId.put(o.getId(), o);
+        Query q = Query.query(Criteria.where("orderId").in(byId.keySet()));
+        q.fields().include("orderId").include("productId").include("quantity");
+
+        Map<String,Set<String>> productsByOrder = new HashMap<>();
+        List<OrderItemLine> lines = new ArrayList<>();
+        for (OrderItem it : mongoTemplate.find(q, OrderItem.class)) {
+            List<String> owed = byId.get(it.getOrderId()).getStockOwed();
+            if (owed != null && !owed.contains(it.getProductId())) continue;
+            productsByOrder.computeIfAbsent(it.getOrderId(), k -> new HashSet<>()).add(it.getProductId());
+            lines.add(new OrderItemLine(it.getProductId(), it.getQuantity(), it.getPrice()));
+        }
+
+        Set<String> failed;
+        try {
+            failed = releaseStock(lines);
+        } catch (RuntimeException e) {
+            // no per-write report (typically the server couldn't be reached), so treat it all as not applied
+            log.warn("stock release failed for {} orders: {}", orders.size(), e.getMessage());
+            failed = new HashSet<>();
+            for (OrderItemLine l : lines) failed.add(l.productId());
+        }
+
+        Set<String> stillOwing = new HashSet<>();
+        for (Order o : orders) {
+            List<String> owed = productsByOrder.getOrDefault(o.getId(), Set.of()).stream()
+                    .filter(failed::contains).sorted().toList();
+            if (!owed.isEmpty()) {
+                mongoTemplate.updateFirst(ShardKeys.byId(o.getId()),
+                        new Update().set("stockReleased", false).set("stockOwed", owed), Order.class);
+                stillOwing.add(o.getId());
+            } else if (o.getStockOwed() != null) {
+                mongoTemplate.updateFirst(ShardKeys.byId(o.getId()), new Update().unset("stockOwed"), Order.class);
             }
         }
-        ord.setStatus("CANCELLED");
-        return orderRepo.save(ord);
+        if (!stillOwing.isEmpty()) log.warn("{} orders still owe stock, the expiry sweep retries them", stillOwing.size());
+        return stillOwing;
     }
 }
@@ -2,35 +2,61 @@ package com.example.in_class_project.service;
 
 import com.example.in_class_project.dto.PaymentRequest;
 import com.example.in_class_project.model.Order;
+import com.example.in_class_project.model.OrderStatus;
 import com.example.in_class_project.model.Payment;
 import com.example.in_class_project.repository.PaymentRepository;
+import com.example.in_class_project.repository.projection.PaymentSummary;
+import com.example.in_class_project.sharding.ShardKeys;
 import com.razorpay.RazorpayClient;
+import org.bson.Document;
 import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
 
 import java.time.Instant;
+import java.util.List;
 import java.util.Optional;
-import java.util.UUID;
 
 @Service
 public class PaymentService {
 
+    private static final Logger log = LoggerFactory.getLogger(PaymentService.class);
+    private static final int MAX_SETTLE_ATTEMPTS = 5;
+    // captured, but the order was cancelled or expired first; the money has to go back
+    static final String REFUND_REQUIRED = "REFUND_REQUIRED";
+    // gateway order id -> payment id; webhooks only carry the former, and payments are sharded by userId
+    private static final String PAYMENT_REFS = "payment_refs";
+
     private final PaymentRepository paymentRepo;
     private final OrderService orderService;
-    private final RazorpayClient razorpayClient;
+    private final ObjectProvider<RazorpayClient> razorpayClient;
+    private final AnalyticsService analyticsService;
+    private final MongoTemplate mongoTemplate;
 
     public PaymentService(PaymentRepository paymentRepo,
                           OrderService orderService,
-                          RazorpayClient razorpayClient) {
+                          ObjectProvider<RazorpayClient> razorpayClient,
+                          AnalyticsService analyticsService,
+                          MongoTemplate mongoTemplate) {
         this.paymentRepo = paymentRepo;
         this.orderService = orderService;
         this.razorpayClient = razorpayClient;
+        this.analyticsService = analyticsService;
+        this.mongoTemplate = mongoTemplate;
     }
 
     public Payment createPayment(PaymentRequest req) {
         Order order = orderService.getOrder(req.getOrderId())
                 .orElseThrow(() -> new RuntimeException("order not found"));
-        if (!"CREATED".equals(order.getStatus()))
+        if (!OrderStatus.CREATED.name().equals(order.getStatus()))
             throw new RuntimeException("order not payable in status " + order.getStatus());
 
         double amount = order.getTotalAmount();
@@ -44,44 +70,119 @@ public class PaymentService {
             notes.put("userId", order.getUserId());
             body.put("notes", notes);
 
-            com.razorpay.Order rpOrder = razorpayClient.orders.create(body);
+            com.razorpay.Order rpOrder = razorpayClient.getObject().orders.create(body);
             String rpOrderId = rpOrder.get("id");
 
             Payment p = new Payment();
-            p.setId(UUID.randomUUID().toString());
+            p.setId(ShardKeys.newId(order.getUserId()));
+            p.setUserId(order.getUserId());
             p.setOrderId(order.getId());
             p.setAmount(amount);
             p.setStatus("PENDING");
             p.setRazorpayOrderId(rpOrderId);
             p.setCreatedAt(Instant.now());
 
-            return paymentRepo.save(p);
+            Payment saved = paymentRepo.save(p);
+            // written after the payment so a failed save leaves no ref behind; until it lands,
+            // webhooks find the payment through the broadcast fallback
+            mongoTemplate.save(new Document("_id", rpOrderId).append("paymentId", saved.getId()), PAYMENT_REFS);
+            return saved;
         } catch (Exception e) {
             throw new RuntimeException("razorpay error: " + e.getMessage());
         }
     }
 
+    /**
+     * Applies a gateway outcome. The payment moves first (PENDING or FAILED to
+     * SUCCESS, PENDING to FAILED), then the order through the order state
+     * machine. A capture for an order that was cancelled or expired meanwhile
+     * leaves the payment REFUND_REQUIRED. Redeliveries are no-ops and out-of-order events that the state
+     * machine rejects, such as a failure arriving after the capture, are
+     * ignored, so the handler is safe to run concurrently with itself, cancels
+     * and the expiry sweep.
+     */
     public void handleWebhook(String paymentId, String razorpayOrderId, String status) {
-        Optional<Payment> pOpt = paymentRepo.findByRazorpayOrderId(razorpayOrderId);
-        if (pOpt.isEmpty()) throw new RuntimeException("payment not found for order " + razorpayOrderId);
-        Payment p = pOpt.get();
+        Payment p = findByGatewayOrder(razorpayOrderId)
+                .orElseThrow(() -> new RuntimeException("payment not found for order " + razorpayOrderId));
 
         if ("captured".equalsIgnoreCase(status) || "authorized".equalsIgnoreCase(status)) {
-            p.setStatus("SUCCESS");
-            p.setPaymentId(paymentId);
-            orderService.updateStatus(p.getOrderId(), "PAID");
+            settle(p, "SUCCESS", paymentId, List.of("PENDING", "FAILED"));
+            try {
+                // only the call that actually moved the order counts the sale, redeliveries find it PAID already
+                orderService.transition(p.getOrderId(), OrderStatus.PAID).ifPresent(this::recordSale);
+            } catch (IllegalStateException e) {
+                Payment charged = findById(p.getId()).orElseThrow(() -> new RuntimeException("payment not found"));
+                settle(charged, REFUND_REQUIRED, paymentId, List.of("SUCCESS"));
+                log.warn("payment {} captured for order {} that can no longer be paid, marked {}: {}",
+                        paymentId, p.getOrderId(), REFUND_REQUIRED, e.getMessage());
+            }
         } else if ("failed".equalsIgnoreCase(status)) {
-            p.setStatus("FAILED");
-            orderService.updateStatus(p.getOrderId(), "FAILED");
+            if (!settle(p, "FAILED", paymentId, List.of("PENDING"))) return;
+            try {
+                orderService.transition(p.getOrderId(), OrderStatus.FAILED);
+            } catch (IllegalStateException e) {
+                log.info("ignoring failure for order {}: {}", p.getOrderId(), e.getMessage());
+            }
+        }
+    }
+
+    // false if the payment is already past `from`, e.g. a failure reported after the capture
+    private boolean settle(Payment p, String target, String paymentId, List<String> from) {
+        Payment current = p;
+        for (int attempt = 0; attempt < MAX_SETTLE_ATTEMPTS; attempt++) {
+            if (target.equals(current.getStatus())) return true;
+            if (!from.contains(current.getStatus())) {
+                log.info("payment {} is {}, not moving it to {}", current.getId(), current.getStatus(), target);
+                return false;
+            }
+            Payment moved = mongoTemplate.findAndModify(
+                    Query.query(Criteria.where("_id").is(current.getId())
+                            .and(ShardKeys.FIELD).is(current.getUserId())
+                            .and("status").is(current.getStatus())
+                            .and("version").is(current.getVersion())),
+                    new Update().set("status", target).set("paymentId", paymentId).inc("version", 1),
+                    FindAndModifyOptions.options().returnNew(true),
+                    Payment.class);
+            if (moved != null) return true;
+            current = findById(current.getId()).orElseThrow(() -> new RuntimeException("payment not found"));
+        }
+        throw new OptimisticLockingFailureException("payment " + p.getId() + " kept changing, gave up moving it to " + target);
+    }
+
+    private void recordSale(Order order) {
+        try {
+            analyticsService.recordPaidOrder(order);
+        } catch (RuntimeException e) {
+            // rollups can be rebuilt from orders, don't fail the webhook over them
+            log.warn("failed to record sale for order {}: {}", order.getId(), e.getMessage());
         }
-        paymentRepo.save(p);
     }
 
     public Optional<Payment> getByOrderId(String orderId) {
-        return paymentRepo.findByOrderId(orderId);
+        return Optional.ofNullable(mongoTemplate.findOne(ShardKeys.byParent("orderId", orderId), Payment.class));
+    }
+
+    public Optional<PaymentSummary> getSummaryByOrderId(String orderId) {
+        return mongoTemplate.query(Payment.class).as(PaymentSummary.class)
+                .matching(ShardKeys.byParent("orderId", orderId))
+                .first();
     }
 
     public Payment getById(String id) {
-        return paymentRepo.findById(id).orElseThrow(() -> new RuntimeException("payment not found"));
+        return findById(id).orElseThrow(() -> new RuntimeException("payment not found"));
+    }
+
+    private Optional<Payment> findById(String id) {
+        return Optional.ofNullable(mongoTemplate.findOne(ShardKeys.byId(id), Payment.class));
+    }
+
+    Optional<Payment> findByGatewayOrder(String razorpayOrderId) {
+        Document ref = mongoTemplate.findById(razorpayOrderId, Document.class, PAYMENT_REFS);
+        if (ref != null) {
+            Optional<Payment> p = findById(ref.getString("paymentId"));
+            if (p.isPresent()) return p;
+        }
+        // payments created before the refs collection; this one is broadcast to every shard
+        return paymentRepo.findByRazorpayOrderId(razorpayOrderId);
     }
 }
@@ -1,50 +1,129 @@
 package com.example.in_class_project.service;
 
+import com.example.in_class_project.event.ProductChangedEvent;
+import com.example.in_class_project.inventory.FlashSaleInventory;
 import com.example.in_class_project.model.Product;
 import com.example.in_class_project.repository.ProductRepository;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
 
+import java.time.Instant;
 import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
 
 @Service
 public class ProductService {
 
     private final ProductRepository repo;
+    private final MongoTemplate mongoTemplate;
+    private final CartService cartService;
+    private final ApplicationEventPublisher events;
+    private final FlashSaleInventory flashSale;
 
-    public ProductService(ProductRepository repo) {
+    public ProductService(ProductRepository repo,
+                          MongoTemplate mongoTemplate,
+                          CartService cartService,
+                          ApplicationEventPublisher events,
+                          FlashSaleInventory flashSale) {
         this.repo = repo;
+        this.mongoTemplate = mongoTemplate;
+        this.cartService = cartService;
+        this.events = events;
+        this.flashSale = flashSale;
     }
 
     public Product create(Product p) {
-        return repo.save(p);
+        p.setVersion(1L);
+        p.setUpdatedAt(Instant.now());
+        // insert, not save, so a client-supplied id can't replace an existing product
+        Product saved = repo.insert(p);
+        events.publishEvent(new ProductChangedEvent(saved.getId()));
+        if (Boolean.TRUE.equals(saved.getFlashSale())) flashSale.refresh(saved.getId());
+        return saved;
     }
 
     public List<Product> getAll() {
         return repo.findAll();
     }
 
+    public List<Product> getAll(Iterable<String> ids) {
+        return repo.findAllById(ids);
+    }
+
     public Optional<Product> get(String id) {
         return repo.findById(id);
     }
 
+    /**
+     * Sets only the fields present in the input. Stock is also moved by flash-sale
+     * leases and checkouts through conditional $inc, so it is never written back
+     * from a copy read earlier, and can't be edited while a flash sale holds leases.
+     */
     public Optional<Product> update(String id, Product input) {
-        return repo.findById(id).map(p -> {
-            if (input.getName() != null) p.setName(input.getName());
-            if (input.getDescription() != null) p.setDescription(input.getDescription());
-            if (input.getPrice() != null) p.setPrice(input.getPrice());
-            if (input.getStock() != null) p.setStock(input.getStock());
-            return repo.save(p);
-        });
+        Criteria match = Criteria.where("_id").is(id);
+        Instant now = Instant.now();
+        Update update = new Update().inc("version", 1).set("updatedAt", now);
+        if (input.getName() != null) update.set("name", input.getName());
+        if (input.getDescription() != null) update.set("description", input.getDescription());
+        if (input.getPrice() != null) update.set("price", input.getPrice());
+        if (input.getFlashSale() != null) update.set("flashSale", input.getFlashSale());
+        if (input.getStock() != null) {
+            if (Boolean.TRUE.equals(input.getFlashSale()))
+                throw new IllegalStateException("stock can't be edited while starting a flash sale");
+            update.set("stock", input.getStock());
+            match.and("flashSale").ne(true);
+        }
+
+        Product before = mongoTemplate.findAndModify(Query.query(match), update, Product.class);
+        if (before == null) {
+            if (input.getStock() != null && repo.existsById(id))
+                throw new IllegalStateException("stock can't be edited during a flash sale");
+            return Optional.empty();
+        }
+
+        Product saved = applied(before, input, now);
+        events.publishEvent(new ProductChangedEvent(id));
+        if (input.getFlashSale() != null) flashSale.refresh(id);
+        if (!Objects.equals(before.getPrice(), saved.getPrice())) {
+            cartService.onPriceChange(id, priceOrZero(before.getPrice()), priceOrZero(saved.getPrice()));
+        }
+        return Optional.of(saved);
     }
 
     public boolean delete(String id) {
-        if (!repo.existsById(id)) return false;
+        Optional<Product> p = repo.findById(id);
+        if (p.isEmpty()) return false;
         repo.deleteById(id);
+        events.publishEvent(new ProductChangedEvent(id));
+        // lines for a deleted product no longer count towards cart totals
+        cartService.onPriceChange(id, priceOrZero(p.get().getPrice()), 0);
         return true;
     }
 
     public List<Product> search(String q) {
         return repo.findByNameContainingIgnoreCase(q);
     }
+
+    // the document as the update above left it
+    private static Product applied(Product before, Product input, Instant updatedAt) {
+        return Product.builder()
+                .id(before.getId())
+                .name(input.getName() != null ? input.getName() : before.getName())
+                .description(input.getDescription() != null ? input.getDescription() : before.getDescription())
+                .price(input.getPrice() != null ? input.getPrice() : before.getPrice())
+                .stock(input.getStock() != null ? input.getStock() : before.getStock())
+                .flashSale(input.getFlashSale() != null ? input.getFlashSale() : before.getFlashSale())
+                .version(before.getVersion() == null ? 1 : before.getVersion() + 1)
+                .updatedAt(updatedAt)
+                .build();
+    }
+
+    private static double priceOrZero(Double price) {
+        return price == null ? 0 : price;
+    }
 }
@@ -0,0 +1,267 @@
+package com.example.in_class_project.service;
+
+import com.example.in_class_project.model.CartItem;
+import com.example.in_class_project.repository.CartRepository;
+import com.example.in_class_project.sharding.ShardKeys;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps active carts in memory and writes them to cart_items in the background.
+ * Repeated edits to the same line between two flushes turn into a single save.
+ * Enabled with cart.write-behind.enabled=true.
+ * <p>
+ * A cart is read from Mongo once, when this node first touches it, and this node's
+ * copy is what gets flushed; nothing tells other nodes about it. So with more than
+ * one instance, every request for a user (cart edits, reads and checkout) has to
+ * reach the same node, i.e. the load balancer must route sticky by userId. Without
+ * that, edits on two nodes overwrite each other, a checkout on one node misses lines
+ * still buffered on another, and that node's next flush writes the cleared cart back.
+ */
+@Component
+@ConditionalOnProperty(name = "cart.write-behind.enabled", havingValue = "true")
+public class WriteBehindCartStore {
+
+    private static final Logger log = LoggerFactory.getLogger(WriteBehindCartStore.class);
+
+    private final CartRepository cartRepo;
+    private final CartTotalService totals;
+    private final Map<String, UserCart> carts = new ConcurrentHashMap<>();
+    private final Map<String, String> ownerByItemId = new ConcurrentHashMap<>();
+    private final Object[] stripes;
+    private final int flushThreshold;
+    private final long idleEvictMillis;
+    private final AtomicInteger dirtyCarts = new AtomicInteger();
+    private final AtomicBoolean flushQueued = new AtomicBoolean();
+    private final ExecutorService flusher = Executors.newSingleThreadExecutor();
+
+    public WriteBehindCartStore(CartRepository cartRepo,
+                                CartTotalService totals,
+                                @Value("${cart.write-behind.stripes:64}") int stripes,
+                                @Value("${cart.write-behind.flush-threshold:500}") int flushThreshold,
+                                @Value("${cart.write-behind.idle-evict-ms:600000}") long idleEvictMillis) {
+        this.cartRepo = cartRepo;
+        this.totals = totals;
+        this.stripes = new Object[stripes];
+        for (int i = 0; i < stripes; i++) this.stripes[i] = new Object();
+        this.flushThreshold = flushThreshold;
+        this.idleEvictMillis = idleEvictMillis;
+    }
+
+    public LineChange add(String userId, String productId, int qty) {
+        synchronized (lockFor(userId)) {
+            UserCart cart = load(userId);
+            CartItem item = cart.byProduct.get(productId);
+            int lineDelta = 0;
+            if (item != null) {
+                item.setQuantity(item.getQuantity() + qty);
+            } else {
+                lineDelta = 1;
+                item = new CartItem();
+                item.setId(ShardKeys.newId(userId));
+                item.setUserId(userId);
+                item.setProductId(productId);
+                item.setQuantity(qty);
+                cart.byProduct.put(productId, item);
+                ownerByItemId.put(item.getId(), userId);
+            }
+            markDirty(cart, item);
+            return new LineChange(copy(item), qty, lineDelta);
+        }
+    }
+
+    public LineChange updateQty(String cartItemId, int qty) {
+        String userId = ownerOf(cartItemId);
+        if (userId == null) throw new RuntimeException("cart item not found");
+        synchronized (lockFor(userId)) {
+            UserCart cart = load(userId);
+            CartItem item = cart.findById(cartItemId);
+            if (item == null) throw new RuntimeException("cart item not found");
+            int qtyDelta = qty - item.getQuantity();
+            item.setQuantity(qty);
+            markDirty(cart, item);
+            return new LineChange(copy(item), qtyDelta, 0);
+        }
+    }
+
+    public Optional<LineChange> remove(String cartItemId) {
+        String userId = ownerOf(cartItemId);
+        if (userId == null) return Optional.empty();
+        synchronized (lockFor(userId)) {
+            UserCart cart = load(userId);
+            CartItem item = cart.findById(cartItemId);
+            if (item == null) return Optional.empty();
+            cart.byProduct.remove(item.getProductId());
+            cart.unsaved.remove(item.getProductId());
+            cart.deletedIds.add(cartItemId);
+            ownerByItemId.remove(cartItemId);
+            markDirty(cart, null);
+            return Optional.of(new LineChange(copy(item), -item.getQuantity(), -1));
+        }
+    }
+
+    public List<CartItem> items(String userId) {
+        synchronized (lockFor(userId)) {
+            UserCart cart = load(userId);
+            List<CartItem> out = new ArrayList<>(cart.byProduct.size());
+            for (CartItem item : cart.byProduct.values()) out.add(copy(item));
+            return out;
+        }
+    }
+
+    // buffered alongside the lines and pushed to the carts collection on the same flush
+    public void applyTotals(String userId, double amountDelta, int lineDelta) {
+        synchronized (lockFor(userId)) {
+            UserCart cart = load(userId);
+            cart.pendingAmount += amountDelta;
+            cart.pendingLines += lineDelta;
+            markDirty(cart, null);
+        }
+    }
+
+    public double pendingAmount(String userId) {
+        synchronized (lockFor(userId)) {
+            UserCart cart = carts.get(userId);
+            return cart == null ? 0 : cart.pendingAmount;
+        }
+    }
+
+    public void clear(String userId) {
+        synchronized (lockFor(userId)) {
+            cartRepo.deleteByUserId(userId);
+            UserCart cart = carts.remove(userId);
+            if (cart == null) return;
+            if (cart.dirty) dirtyCarts.decrementAndGet();
+            for (CartItem item : cart.byProduct.values()) ownerByItemId.remove(item.getId());
+        }
+    }
+
+    public void flush(String userId) {
+        synchronized (lockFor(userId)) {
+            UserCart cart = carts.get(userId);
+            if (cart != null) write(cart);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${cart.write-behind.flush-interval-ms:1000}")
+    public void flushAll() {
+        flushQueued.set(false);
+        long idleBefore = System.currentTimeMillis() - idleEvictMillis;
+        for (String userId : carts.keySet()) {
+            synchronized (lockFor(userId)) {
+                UserCart cart = carts.get(userId);
+                if (cart == null) continue;
+                write(cart);
+                if (!cart.dirty && cart.lastAccess < idleBefore) {
+                    carts.remove(userId);
+                    for (CartItem item : cart.byProduct.values()) ownerByItemId.remove(item.getId());
+                }
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flusher.shutdown();
+        flushAll();
+    }
+
+    // caller holds the stripe lock; the write happens under it too so clear() can't race a late save
+    private void write(UserCart cart) {
+        if (!cart.dirty) return;
+        try {
+            if (!cart.deletedIds.isEmpty()) cartRepo.deleteByUserIdAndIdIn(cart.userId, cart.deletedIds);
+            if (!cart.unsaved.isEmpty()) {
+                List<CartItem> toSave = new ArrayList<>(cart.unsaved.size());
+                for (String productId : cart.unsaved) toSave.add(cart.byProduct.get(productId));
+                cartRepo.saveAll(toSave);
+            }
+            cart.deletedIds.clear();
+            cart.unsaved.clear();
+            totals.apply(cart.userId, cart.pendingAmount, cart.pendingLines);
+            cart.pendingAmount = 0;
+            cart.pendingLines = 0;
+            cart.dirty = false;
+            dirtyCarts.decrementAndGet();
+        } catch (RuntimeException e) {
+            log.warn("cart flush failed for user {}, will retry: {}", cart.userId, e.getMessage());
+        }
+    }
+
+    private UserCart load(String userId) {
+        UserCart cart = carts.get(userId);
+        if (cart == null) {
+            cart = new UserCart(userId);
+            for (CartItem item : cartRepo.findByUserId(userId)) {
+                cart.byProduct.put(item.getProductId(), item);
+                ownerByItemId.put(item.getId(), userId);
+            }
+            carts.put(userId, cart);
+        }
+        cart.lastAccess = System.currentTimeMillis();
+        return cart;
+    }
+
+    private String ownerOf(String cartItemId) {
+        String userId = ownerByItemId.get(cartItemId);
+        if (userId == null) userId = ShardKeys.userIdOf(cartItemId);
+        if (userId != null) return userId;
+        // a line from before user-scoped ids that isn't loaded on this node yet
+        return cartRepo.findById(cartItemId).map(CartItem::getUserId).orElse(null);
+    }
+
+    private void markDirty(UserCart cart, CartItem changed) {
+        if (changed != null) cart.unsaved.add(changed.getProductId());
+        if (!cart.dirty) {
+            cart.dirty = true;
+            if (dirtyCarts.incrementAndGet() >= flushThreshold && flushQueued.compareAndSet(false, true)) {
+                flusher.execute(this::flushAll);
+            }
+        }
+    }
+
+    private Object lockFor(String userId) {
+        return stripes[(userId.hashCode() & 0x7fffffff) % stripes.length];
+    }
+
+    private CartItem copy(CartItem item) {
+        return new CartItem(item.getId(), item.getUserId(), item.getProductId(), item.getQuantity());
+    }
+
+    private static final class UserCart {
+        final String userId;
+        final Map<String, CartItem> byProduct = new LinkedHashMap<>();
+        final Set<String> unsaved = new HashSet<>();
+        final Set<String> deletedIds = new HashSet<>();
+        double pendingAmount;
+        int pendingLines;
+        boolean dirty;
+        long lastAccess;
+
+        UserCart(String userId) {
+            this.userId = userId;
+        }
+
+        CartItem findById(String cartItemId) {
+            for (CartItem item : byProduct.values()) {
+                if (item.getId().equals(cartItemId)) return item;
+            }
+            return null;
+        }
+    }
+
+    public record LineChange(CartItem item, int qtyDelta, int lineDelta) {
+    }
+}
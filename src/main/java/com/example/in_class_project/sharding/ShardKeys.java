@@ -0,0 +1,49 @@
+package com.example.in_class_project.sharding;
+
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.util.UUID;
+
+/**
+ * cart_items, orders, order_items and payments are sharded on userId. Ids of
+ * those documents are minted as {@code <userId>:<uuid>} so a lookup by id alone
+ * can still carry the shard key and go to one shard. Ids created before this
+ * layout are plain UUIDs / ObjectIds; lookups on them leave the shard key out
+ * and are broadcast, as every lookup was before.
+ */
+public final class ShardKeys {
+
+    public static final String FIELD = "userId";
+    private static final char SEPARATOR = ':';
+
+    private ShardKeys() {
+    }
+
+    public static String newId(String userId) {
+        return userId + SEPARATOR + UUID.randomUUID();
+    }
+
+    // null for ids from before the layout; userIds may contain ':' themselves, the uuid never does
+    public static String userIdOf(String id) {
+        int at = id == null ? -1 : id.lastIndexOf(SEPARATOR);
+        return at > 0 ? id.substring(0, at) : null;
+    }
+
+    public static Criteria idCriteria(String id) {
+        Criteria c = Criteria.where("_id").is(id);
+        String userId = userIdOf(id);
+        return userId == null ? c : c.and(FIELD).is(userId);
+    }
+
+    public static Query byId(String id) {
+        return Query.query(idCriteria(id));
+    }
+
+    // children of a user-scoped parent, e.g. the items or payment of an order, live on the parent's shard
+    public static Query byParent(String parentField, String parentId) {
+        Criteria c = Criteria.where(parentField).is(parentId);
+        String userId = userIdOf(parentId);
+        return Query.query(userId == null ? c : c.and(FIELD).is(userId));
+    }
+}
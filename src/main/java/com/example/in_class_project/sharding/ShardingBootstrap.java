@@ -0,0 +1,97 @@
+package com.example.in_class_project.sharding;
+
+import com.example.in_class_project.model.CartItem;
+import com.example.in_class_project.model.Order;
+import com.example.in_class_project.model.OrderItem;
+import com.example.in_class_project.model.Payment;
+import com.mongodb.MongoCommandException;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoDatabase;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentEntity;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Prepares a sharded cluster for the userId layout: copies userId onto order
+ * items and payments written before they carried it, then shards every
+ * {@code @Sharded} collection on its declared key. All steps are idempotent.
+ * Needs mongos, so it is off unless mongo.sharding.enabled=true.
+ */
+@Component
+@ConditionalOnProperty(name = "mongo.sharding.enabled", havingValue = "true")
+public class ShardingBootstrap {
+
+    private static final Logger log = LoggerFactory.getLogger(ShardingBootstrap.class);
+    private static final List<Class<?>> SHARDED_TYPES = List.of(CartItem.class, Order.class, OrderItem.class, Payment.class);
+
+    private final MongoTemplate mongoTemplate;
+    private final MongoClient mongoClient;
+
+    public ShardingBootstrap(MongoTemplate mongoTemplate, MongoClient mongoClient) {
+        this.mongoTemplate = mongoTemplate;
+        this.mongoClient = mongoClient;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void schedule() {
+        Thread t = new Thread(this::run, "mongo-sharding-bootstrap");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    public void run() {
+        long start = System.nanoTime();
+        // the shard key has to be on the document before the collection is split on it
+        backfillUserId("order_items");
+        backfillUserId("payments");
+
+        MongoDatabase admin = mongoClient.getDatabase("admin");
+        String db = mongoTemplate.getDb().getName();
+        try {
+            admin.runCommand(new Document("enableSharding", db));
+        } catch (MongoCommandException e) {
+            log.warn("could not enable sharding on {}: {}", db, e.getMessage());
+            return;
+        }
+        for (Class<?> type : SHARDED_TYPES) {
+            MongoPersistentEntity<?> entity = mongoTemplate.getConverter().getMappingContext().getRequiredPersistentEntity(type);
+            Document key = entity.getShardKey().getDocument();
+            try {
+                mongoTemplate.getCollection(entity.getCollection()).createIndex(key);
+                admin.runCommand(new Document("shardCollection", db + "." + entity.getCollection()).append("key", key));
+            } catch (MongoCommandException e) {
+                log.warn("could not shard {}: {}", entity.getCollection(), e.getMessage());
+            }
+        }
+        log.info("sharding bootstrap finished in {} ms", (System.nanoTime() - start) / 1_000_000);
+    }
+
+    // order-scoped documents take userId from their order; runs server-side in one pass
+    private void backfillUserId(String collection) {
+        List<Document> pipeline = List.of(
+                new Document("$match", new Document(ShardKeys.FIELD, new Document("$exists", false))),
+                new Document("$lookup", new Document("from", "orders")
+                        .append("localField", "orderId")
+                        .append("foreignField", "_id")
+                        .append("as", "order")),
+                new Document("$set", new Document(ShardKeys.FIELD, new Document("$first", "$order.userId"))),
+                new Document("$project", new Document("_id", 1).append(ShardKeys.FIELD, 1)),
+                new Document("$merge", new Document("into", collection)
+                        .append("on", "_id")
+                        .append("whenMatched", "merge")
+                        .append("whenNotMatched", "discard")));
+        try {
+            mongoTemplate.getCollection(collection).aggregate(pipeline).toCollection();
+        } catch (RuntimeException e) {
+            log.warn("could not backfill {} on {}: {}", ShardKeys.FIELD, collection, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package com.example.in_class_project.sync;
+
+import com.example.in_class_project.event.ProductChangedEvent;
+import com.example.in_class_project.inventory.FlashSaleInventory;
+import com.example.in_class_project.service.CatalogCache;
+import com.mongodb.MongoCommandException;
+import com.mongodb.client.ChangeStreamIterable;
+import com.mongodb.client.MongoChangeStreamCursor;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.UpdateDescription;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Tails the products change stream so node-local read structures (catalog cache,
+ * flash-sale snapshots) see writes made by other nodes. Changes are republished
+ * as the same application events local writes use. Resume tokens are persisted
+ * per node; if a stream can't resume, the cache is dropped and the flash sales
+ * re-read wholesale since events may have been missed. Needs a replica set, so
+ * it is off unless changestream.enabled=true.
+ */
+@Component
+@ConditionalOnProperty(name = "changestream.enabled", havingValue = "true")
+public class ChangeStreamListener {
+
+    private static final Logger log = LoggerFactory.getLogger(ChangeStreamListener.class);
+    private static final String TOKENS = "change_stream_tokens";
+    private static final int CHANGE_STREAM_HISTORY_LOST = 286;
+
+    private final MongoTemplate mongoTemplate;
+    private final ApplicationEventPublisher events;
+    private final CatalogCache catalogCache;
+    private final FlashSaleInventory flashSale;
+    private final MeterRegistry meterRegistry;
+    private final String nodeId;
+    private final long tokenFlushMillis;
+    private final List<Thread> workers = new ArrayList<>();
+    private volatile boolean running;
+
+    public ChangeStreamListener(MongoTemplate mongoTemplate,
+                                ApplicationEventPublisher events,
+                                CatalogCache catalogCache,
+                                FlashSaleInventory flashSale,
+                                MeterRegistry meterRegistry,
+                                @Value("${changestream.node-id:${HOSTNAME:local}}") String nodeId,
+                                @Value("${changestream.token-flush-ms:1000}") long tokenFlushMillis) {
+        this.mongoTemplate = mongoTemplate;
+        this.events = events;
+        this.catalogCache = catalogCache;
+        this.flashSale = flashSale;
+        this.meterRegistry = meterRegistry;
+        this.nodeId = nodeId;
+        this.tokenFlushMillis = tokenFlushMillis;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        running = true;
+        startStream("products", List.of(Aggregates.match(
+                Filters.in("operationType", "insert", "update", "replace", "delete"))), this::onProductChange);
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        for (Thread t : workers) t.join(TimeUnit.SECONDS.toMillis(5));
+    }
+
+    private void onProductChange(ChangeStreamDocument<Document> change) {
+        events.publishEvent(new ProductChangedEvent(idOf(change), touchesFlashSale(change)));
+    }
+
+    private static boolean touchesFlashSale(ChangeStreamDocument<Document> change) {
+        UpdateDescription update = change.getUpdateDescription();
+        if (update != null) {
+            return (update.getUpdatedFields() != null && update.getUpdatedFields().containsKey("flashSale"))
+                    || (update.getRemovedFields() != null && update.getRemovedFields().contains("flashSale"));
+        }
+        // inserts and replaces carry the whole document
+        return change.getFullDocument() != null && Boolean.TRUE.equals(change.getFullDocument().getBoolean("flashSale"));
+    }
+
+    private void startStream(String collection, List<Bson> pipeline, Consumer<ChangeStreamDocument<Document>> handler) {
+        AtomicLong lagMillis = new AtomicLong();
+        Gauge.builder("changestream.lag", lagMillis, AtomicLong::get)
+                .description("Time between a write and this node applying it")
+                .baseUnit("milliseconds")
+                .tag("collection", collection)
+                .register(meterRegistry);
+
+        Thread t = new Thread(() -> {
+            while (running) {
+                try {
+                    tail(collection, pipeline, handler, lagMillis);
+                } catch (MongoCommandException e) {
+                    if (e.getErrorCode() == CHANGE_STREAM_HISTORY_LOST) {
+                        log.warn("{} change stream fell off the oplog, starting over", collection);
+                        saveToken(collection, null);
+                    } else {
+                        log.warn("{} change stream failed, retrying: {}", collection, e.getMessage());
+                    }
+                    sleepQuietly();
+                } catch (RuntimeException e) {
+                    log.warn("{} change stream failed, retrying: {}", collection, e.getMessage());
+                    sleepQuietly();
+                }
+            }
+        }, "change-stream-" + collection);
+        t.setDaemon(true);
+        t.start();
+        workers.add(t);
+    }
+
+    private void tail(String collection, List<Bson> pipeline,
+                      Consumer<ChangeStreamDocument<Document>> handler,
+                      AtomicLong lagMillis) {
+        MongoCollection<Document> coll = mongoTemplate.getCollection(collection);
+        BsonDocument token = loadToken(collection);
+        ChangeStreamIterable<Document> stream = coll.watch(pipeline).maxAwaitTime(1, TimeUnit.SECONDS);
+        if (token != null) {
+            stream = stream.resumeAfter(token);
+        } else {
+            // nothing to resume from, so whatever we cached before may already be stale
+            catalogCache.invalidateAll();
+            flashSale.resync();
+        }
+
+        long lastSaved = System.currentTimeMillis();
+        BsonDocument lastToken = token;
+        try (MongoChangeStreamCursor<ChangeStreamDocument<Document>> cursor = stream.cursor()) {
+            while (running) {
+                ChangeStreamDocument<Document> change = cursor.tryNext();
+                if (change != null) {
+                    handler.accept(change);
+                    lagMillis.set(lagOf(change));
+                } else {
+                    lagMillis.set(0);
+                }
+                BsonDocument current = cursor.getResumeToken();
+                long now = System.currentTimeMillis();
+                if (current != null && !current.equals(lastToken) && now - lastSaved >= tokenFlushMillis) {
+                    saveToken(collection, current);
+                    lastToken = current;
+                    lastSaved = now;
+                }
+            }
+            if (cursor.getResumeToken() != null) saveToken(collection, cursor.getResumeToken());
+        }
+    }
+
+    private BsonDocument loadToken(String collection) {
+        BsonDocument doc = mongoTemplate.getCollection(TOKENS)
+                .withDocumentClass(BsonDocument.class)
+                .find(Filters.eq("_id", tokenKey(collection)))
+                .first();
+        return doc == null || !doc.isDocument("token") ? null : doc.getDocument("token");
+    }
+
+    private void saveToken(String collection, BsonDocument token) {
+        String key = tokenKey(collection);
+        if (token == null) {
+            mongoTemplate.getCollection(TOKENS).deleteOne(Filters.eq("_id", key));
+            return;
+        }
+        mongoTemplate.getCollection(TOKENS).replaceOne(Filters.eq("_id", key),
+                new Document("_id", key).append("token", token).append("updatedAt", new Date()),
+                new ReplaceOptions().upsert(true));
+    }
+
+    private String tokenKey(String collection) {
+        return nodeId + ":" + collection;
+    }
+
+    private static long lagOf(ChangeStreamDocument<Document> change) {
+        long writtenAt;
+        if (change.getWallTime() != null) {
+            writtenAt = change.getWallTime().getValue();
+        } else if (change.getClusterTime() != null) {
+            writtenAt = change.getClusterTime().getTime() * 1000L;
+        } else {
+            return 0;
+        }
+        return Math.max(0, System.currentTimeMillis() - writtenAt);
+    }
+
+    private static String idOf(ChangeStreamDocument<Document> change) {
+        BsonValue id = change.getDocumentKey().get("_id");
+        if (id.isObjectId()) return id.asObjectId().getValue().toHexString();
+        if (id.isString()) return id.asString().getValue();
+        return id.toString();
+    }
+
+    private void sleepQuietly() {
+        try {
+            Thread.sleep(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            running = false;
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.example.in_class_project.webhook;
 
+import com.example.in_class_project.audit.AuditLog;
 import com.example.in_class_project.service.PaymentService;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
@@ -12,20 +13,26 @@ import java.util.Map;
 public class PaymentWebhookController {
 
     private final PaymentService paymentService;
+    private final AuditLog audit;
 
-    public PaymentWebhookController(PaymentService paymentService) {
+    public PaymentWebhookController(PaymentService paymentService, AuditLog audit) {
         this.paymentService = paymentService;
+        this.audit = audit;
     }
 
     @PostMapping("/payment")
     public ResponseEntity<?> handle(@RequestBody Map<String,Object> body) {
+        long start = System.nanoTime();
+        String event = null;
+        String paymentId = null;
+        String orderId = null;
         try {
-            String event = (String) body.get("event");
+            event = (String) body.get("event");
             Map<String,Object> payload = (Map<String,Object>) body.get("payload");
             Map<String,Object> payment = (Map<String,Object>) payload.get("payment");
 
-            String paymentId = (String) payment.get("id");
-            String orderId = (String) payment.get("order_id");
+            paymentId = (String) payment.get("id");
+            orderId = (String) payment.get("order_id");
             String status = (String) payment.get("status");
 
             if ("payment.captured".equals(event) || "payment.authorized".equals(event)) {
@@ -33,8 +40,10 @@ public class PaymentWebhookController {
             } else if ("payment.failed".equals(event)) {
                 paymentService.handleWebhook(paymentId, orderId, "failed");
             }
+            audit.webhook(event, paymentId, orderId, 200, "ok", null, start);
             return ResponseEntity.ok(Map.of("message", "ok"));
         } catch (Exception e) {
+            audit.webhook(event, paymentId, orderId, 500, "error", e.getMessage(), start);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                     .body(Map.of("error", e.getMessage()));
         }
@@ -0,0 +1,48 @@
+package com.example.in_class_project.audit;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Request-thread cost of an audit event. Depends on the machine and the JIT, so
+ * it is excluded from the default build; run with -Dtest.excludedGroups= -Dgroups=benchmark.
+ */
+@Tag("benchmark")
+class AuditLogBenchmarkTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void checkoutEventCostsUnderAMicrosecond() throws Exception {
+        AuditLog audit = new AuditLog(new SimpleMeterRegistry(), true, dir.resolve("audit.log").toString(), 1 << 16, 100, 3);
+        String userId = "user-42";
+        String orderId = "3f1c9a2e-5b7d-4e8a-9c1f-2d6b8e4a7f30";
+        for (int i = 0; i < 200_000; i++) {
+            audit.checkout(userId, orderId, 1499.0, 201, "created", null, System.nanoTime());
+        }
+
+        int runs = 1_000_000;
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long allocBefore = threads.getCurrentThreadAllocatedBytes();
+        long t0 = System.nanoTime();
+        for (int i = 0; i < runs; i++) {
+            audit.checkout(userId, orderId, 1499.0, 201, "created", null, t0);
+        }
+        long perEvent = (System.nanoTime() - t0) / runs;
+        long allocPerEvent = (threads.getCurrentThreadAllocatedBytes() - allocBefore) / runs;
+        audit.close();
+
+        System.out.printf("audit checkout event: %d ns, %d B allocated per event on the request thread, %d dropped%n",
+                perEvent, allocPerEvent, audit.dropped());
+        assertTrue(perEvent < 1_000, "audit overhead " + perEvent + " ns per event");
+        assertTrue(allocPerEvent < 8, "request thread allocated " + allocPerEvent + " B per event");
+    }
+}
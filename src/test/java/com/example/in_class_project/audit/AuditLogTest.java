@@ -0,0 +1,105 @@
+package com.example.in_class_project.audit;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import tools.jackson.databind.JsonNode;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AuditLogTest {
+
+    @TempDir
+    Path dir;
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private AuditLog open(int bufferSize) {
+        return new AuditLog(registry, true, dir.resolve("audit.log").toString(), bufferSize, 100, 3);
+    }
+
+    @Test
+    void writesOneJsonObjectPerLine() throws Exception {
+        AuditLog audit = open(64);
+        long start = System.nanoTime();
+        audit.checkout("u-1", "o-1", 1499.5, 201, "created", null, start);
+        audit.paymentCreate("o-1", null, Double.NaN, 400, "rejected", "order not payable in status \"PAID\"", start);
+        audit.webhook("payment.captured", "pay_1", "order_rp1", 200, "ok", null, start);
+        audit.close();
+
+        List<String> lines = Files.readAllLines(dir.resolve("audit.log"), StandardCharsets.UTF_8);
+        assertEquals(3, lines.size());
+        JsonMapper mapper = JsonMapper.builder().build();
+
+        JsonNode checkout = mapper.readTree(lines.get(0));
+        assertEquals("checkout", checkout.get("type").asString());
+        assertEquals("u-1", checkout.get("userId").asString());
+        assertEquals(1499.5, checkout.get("amount").asDouble());
+        assertEquals(201, checkout.get("status").asInt());
+        assertTrue(checkout.has("ts") && checkout.has("durationMicros"));
+
+        JsonNode rejected = mapper.readTree(lines.get(1));
+        assertFalse(rejected.has("amount"));
+        assertFalse(rejected.has("paymentId"));
+        assertEquals("order not payable in status \"PAID\"", rejected.get("error").asString());
+
+        JsonNode webhook = mapper.readTree(lines.get(2));
+        assertEquals("payment.captured", webhook.get("detail").asString());
+        assertEquals("order_rp1", webhook.get("orderId").asString());
+    }
+
+    @Test
+    void dropsAndCountsEventsWhenTheRingIsFull() throws Exception {
+        // writer not running yet, so exactly the first 16 events fit and the rest are dropped
+        AuditLog audit = new AuditLog(registry, true, dir.resolve("audit.log").toString(), 16, 100, 3, false);
+        for (int i = 0; i < 40; i++) {
+            audit.checkout("u-1", "o-" + i, 10.0, 201, "created", null, System.nanoTime());
+        }
+        assertEquals(24, audit.dropped());
+
+        audit.start();
+        audit.close();
+
+        assertEquals(24.0, registry.get("audit.events.dropped").functionCounter().count());
+        assertEquals(16.0, registry.get("audit.events.written").functionCounter().count());
+        List<String> lines = Files.readAllLines(dir.resolve("audit.log"), StandardCharsets.UTF_8);
+        JsonMapper mapper = JsonMapper.builder().build();
+        assertEquals(16, lines.size());
+        for (int i = 0; i < lines.size(); i++) {
+            assertEquals("o-" + i, mapper.readTree(lines.get(i)).get("orderId").asString());
+        }
+    }
+
+    @Test
+    void closeFlushesEverythingPublishedBeforeIt() throws Exception {
+        AuditLog audit = open(1024);
+        for (int i = 0; i < 500; i++) {
+            audit.webhook("payment.captured", "pay_" + i, "order_" + i, 200, "ok", null, System.nanoTime());
+        }
+        audit.close();
+
+        assertEquals(0, audit.dropped());
+        List<String> lines = Files.readAllLines(dir.resolve("audit.log"), StandardCharsets.UTF_8);
+        assertEquals(500, lines.size());
+        assertTrue(lines.get(499).contains("\"paymentId\":\"pay_499\""));
+    }
+
+    @Test
+    void rollsWhenTheFileIsFull() throws Exception {
+        Path file = dir.resolve("roll.log");
+        byte[] line = "0123456789012345678\n".getBytes(StandardCharsets.US_ASCII);
+        try (RollingFileWriter out = new RollingFileWriter(file, 100, 2)) {
+            for (int i = 0; i < 16; i++) out.write(line, line.length);
+        }
+        assertEquals(100, Files.size(dir.resolve("roll.log.1")));
+        assertEquals(100, Files.size(dir.resolve("roll.log.2")));
+        assertFalse(Files.exists(dir.resolve("roll.log.3")));
+        assertEquals(20, Files.size(file));
+    }
+}
@@ -0,0 +1,51 @@
+package com.example.in_class_project.dto;
+
+import com.example.in_class_project.model.CartItem;
+import com.example.in_class_project.model.Product;
+import org.junit.jupiter.api.Test;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CartLineResponseSerializationTest {
+
+    private final JsonMapper mapper = JsonMapper.builder().build();
+    private final CartItem line = new CartItem("c-1", "u-1", "p-1", 2);
+
+    // what CartController.get used to build by hand
+    private static Map<String,Object> asMap(CartItem c, Product p) {
+        Map<String,Object> m = new LinkedHashMap<>();
+        m.put("id", c.getId());
+        m.put("userId", c.getUserId());
+        m.put("productId", c.getProductId());
+        m.put("quantity", c.getQuantity());
+        Map<String,Object> prodMap = new LinkedHashMap<>();
+        if (p != null) {
+            prodMap.put("id", p.getId());
+            prodMap.put("name", p.getName());
+            prodMap.put("price", p.getPrice());
+        }
+        m.put("product", prodMap);
+        return m;
+    }
+
+    @Test
+    void unpricedProductKeepsItsNullPrice() {
+        Product p = new Product();
+        p.setId("p-1");
+        p.setName("Lamp");
+        assertSameJson(asMap(line, p), CartLineResponse.of(line, p));
+    }
+
+    @Test
+    void missingProductIsAnEmptyObject() {
+        assertSameJson(asMap(line, null), CartLineResponse.of(line, null));
+    }
+
+    private void assertSameJson(Map<String,Object> legacy, CartLineResponse typed) {
+        assertEquals(mapper.readTree(mapper.writeValueAsBytes(legacy)), mapper.readTree(mapper.writeValueAsBytes(typed)));
+    }
+}
@@ -0,0 +1,60 @@
+package com.example.in_class_project.dto;
+
+import com.example.in_class_project.model.Order;
+import com.example.in_class_project.repository.projection.OrderItemLine;
+import com.example.in_class_project.repository.projection.PaymentSummary;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import tools.jackson.databind.json.JsonMapper;
+import tools.jackson.module.blackbird.BlackbirdModule;
+
+import java.lang.management.ManagementFactory;
+import java.time.Instant;
+import java.util.List;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Build-and-serialize cost of an order response, typed record against the map it
+ * replaced. Depends on the machine and the JIT, so it is excluded from the default
+ * build; run with -Dtest.excludedGroups= -Dgroups=benchmark.
+ */
+@Tag("benchmark")
+class OrderResponseSerializationBenchmarkTest {
+
+    private final JsonMapper mapper = JsonMapper.builder().addModule(new BlackbirdModule()).build();
+
+    private final Order order = Order.builder().id("o-1").userId("u-1").totalAmount(1499.0)
+            .status("PAID").createdAt(Instant.parse("2026-01-01T10:15:30Z")).build();
+    private final PaymentSummary payment = new PaymentSummary("p-1", "SUCCESS", 1499.0, "pay_1");
+    private final List<OrderItemLine> items = List.of(
+            new OrderItemLine("a", 1, 999.0),
+            new OrderItemLine("b", 2, 250.0));
+
+    @Test
+    void recordAllocatesLessThanTheMap() {
+        Result legacy = measure(() -> mapper.writeValueAsBytes(OrderResponseSerializationTest.asMap(order, items, payment)));
+        Result typed = measure(() -> mapper.writeValueAsBytes(OrderResponse.of(order, items, payment)));
+        System.out.printf("order response: map %d ns / %d B alloc, record %d ns / %d B alloc per response%n",
+                legacy.nanos, legacy.bytes, typed.nanos, typed.bytes);
+        assertTrue(typed.bytes < legacy.bytes, "record " + typed.bytes + " B vs map " + legacy.bytes + " B");
+    }
+
+    private record Result(long nanos, long bytes) {
+    }
+
+    private static Result measure(Supplier<byte[]> work) {
+        int warmup = 20_000;
+        int runs = 100_000;
+        for (int i = 0; i < warmup; i++) work.get();
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long allocBefore = threads.getCurrentThreadAllocatedBytes();
+        long t0 = System.nanoTime();
+        for (int i = 0; i < runs; i++) work.get();
+        long elapsed = System.nanoTime() - t0;
+        long allocated = threads.getCurrentThreadAllocatedBytes() - allocBefore;
+        return new Result(elapsed / runs, allocated / runs);
+    }
+}
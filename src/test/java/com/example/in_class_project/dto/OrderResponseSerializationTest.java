@@ -0,0 +1,100 @@
+package com.example.in_class_project.dto;
+
+import com.example.in_class_project.model.Order;
+import com.example.in_class_project.repository.projection.OrderItemLine;
+import com.example.in_class_project.repository.projection.PaymentSummary;
+import org.junit.jupiter.api.Test;
+import tools.jackson.databind.json.JsonMapper;
+import tools.jackson.module.blackbird.BlackbirdModule;
+
+import java.time.Instant;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OrderResponseSerializationTest {
+
+    private final JsonMapper mapper = JsonMapper.builder().addModule(new BlackbirdModule()).build();
+
+    private final Order order = Order.builder().id("o-1").userId("u-1").totalAmount(1499.0)
+            .status("PAID").createdAt(Instant.parse("2026-01-01T10:15:30Z")).build();
+    private final PaymentSummary payment = new PaymentSummary("p-1", "SUCCESS", 1499.0, "pay_1");
+    private final List<OrderItemLine> items = List.of(
+            new OrderItemLine("a", 1, 999.0),
+            new OrderItemLine("b", 2, 250.0));
+    // not captured yet, and a line whose price was never set
+    private final PaymentSummary pendingPayment = new PaymentSummary("p-2", "PENDING", 1499.0, null);
+    private final List<OrderItemLine> unpricedItems = List.of(new OrderItemLine("c", 1, null));
+
+    private Map<String,Object> asMap() {
+        return asMap(order, items, payment);
+    }
+
+    // what OrderController.get used to build by hand
+    static Map<String,Object> asMap(Order order, List<OrderItemLine> items, PaymentSummary payment) {
+        Map<String,Object> res = new LinkedHashMap<>();
+        res.put("id", order.getId());
+        res.put("userId", order.getUserId());
+        res.put("totalAmount", order.getTotalAmount());
+        res.put("status", order.getStatus());
+        res.put("createdAt", order.getCreatedAt());
+        List<Map<String,Object>> it = new ArrayList<>();
+        for (OrderItemLine oi : items) {
+            Map<String,Object> m = new LinkedHashMap<>();
+            m.put("productId", oi.productId());
+            m.put("quantity", oi.quantity());
+            m.put("price", oi.price());
+            it.add(m);
+        }
+        res.put("items", it);
+        if (payment == null) return res;
+        Map<String,Object> pm = new LinkedHashMap<>();
+        pm.put("id", payment.id());
+        pm.put("status", payment.status());
+        pm.put("amount", payment.amount());
+        pm.put("paymentId", payment.paymentId());
+        res.put("payment", pm);
+        return res;
+    }
+
+    @Test
+    void typedResponseSerializesLikeTheMapItReplaces() {
+        byte[] typed = mapper.writeValueAsBytes(OrderResponse.of(order, items, payment));
+        byte[] legacy = mapper.writeValueAsBytes(asMap());
+        assertEquals(mapper.readTree(legacy), mapper.readTree(typed));
+    }
+
+    @Test
+    void nullFieldsAreWrittenAsNullsLikeTheMap() {
+        byte[] typed = mapper.writeValueAsBytes(OrderResponse.of(order, unpricedItems, pendingPayment));
+        byte[] legacy = mapper.writeValueAsBytes(asMap(order, unpricedItems, pendingPayment));
+        assertEquals(mapper.readTree(legacy), mapper.readTree(typed));
+        assertTrue(mapper.readTree(typed).get("payment").get("paymentId").isNull());
+        assertTrue(mapper.readTree(typed).get("items").get(0).get("price").isNull());
+    }
+
+    @Test
+    void orderWithoutPaymentOmitsPaymentField() {
+        byte[] typed = mapper.writeValueAsBytes(OrderResponse.of(order, items, null));
+        assertFalse(mapper.readTree(typed).has("payment"));
+    }
+
+    // what OrderController.create used to build by hand: no createdAt, no payment
+    private Map<String,Object> createdAsMap() {
+        Map<String,Object> res = asMap(order, items, null);
+        res.remove("createdAt");
+        return res;
+    }
+
+    @Test
+    void createResponseKeepsItsOldShape() {
+        byte[] typed = mapper.writeValueAsBytes(OrderResponse.created(order, items));
+        assertEquals(mapper.readTree(mapper.writeValueAsBytes(createdAsMap())), mapper.readTree(typed));
+    }
+
+    @Test
+    void responseRoundTrips() {
+        OrderResponse response = OrderResponse.of(order, items, payment);
+        assertEquals(response, mapper.readValue(mapper.writeValueAsBytes(response), OrderResponse.class));
+    }
+}
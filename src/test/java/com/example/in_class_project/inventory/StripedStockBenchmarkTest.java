@@ -0,0 +1,59 @@
+package com.example.in_class_project.inventory;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Admission throughput on one hot SKU. Depends on the machine and core count, so
+ * it is excluded from the default build; run with -Dtest.excludedGroups= -Dgroups=benchmark.
+ */
+@Tag("benchmark")
+class StripedStockBenchmarkTest {
+
+    @Test
+    void admissionsPerSecondOnOneSku() throws Exception {
+        long initialStock = 1_000_000;
+        AtomicLong pool = new AtomicLong(initialStock);
+        AtomicInteger leases = new AtomicInteger();
+        StripedStock stock = new StripedStock(16, 100, want -> {
+            leases.incrementAndGet();
+            return StripedStockTest.leaseFrom(pool, want);
+        });
+
+        int threads = 64;
+        int perThread = 20_000;
+        AtomicInteger admitted = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService buyers = Executors.newFixedThreadPool(threads);
+        for (int t = 0; t < threads; t++) {
+            buyers.execute(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < perThread; i++) {
+                    if (stock.tryTake(1)) admitted.incrementAndGet();
+                }
+            });
+        }
+        long t0 = System.nanoTime();
+        start.countDown();
+        buyers.shutdown();
+        assertTrue(buyers.awaitTermination(60, TimeUnit.SECONDS));
+        long elapsed = System.nanoTime() - t0;
+
+        System.out.printf("flash sale: %d admitted, %d leases, %.0f admissions/s%n",
+                admitted.get(), leases.get(), admitted.get() / (elapsed / 1e9));
+        assertEquals(initialStock, admitted.get() + pool.get() + stock.available());
+    }
+}
@@ -0,0 +1,79 @@
+package com.example.in_class_project.inventory;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StripedStockTest {
+
+    // stands in for the conditional $inc on the product document
+    static long leaseFrom(AtomicLong pool, long want) {
+        while (true) {
+            long left = pool.get();
+            long granted = Math.min(left, want);
+            if (granted <= 0) return 0;
+            if (pool.compareAndSet(left, left - granted)) return granted;
+        }
+    }
+
+    @Test
+    void tenThousandBuyersOnOneSkuNeverOversell() throws Exception {
+        long initialStock = 1_000;
+        AtomicLong pool = new AtomicLong(initialStock);
+        AtomicInteger leases = new AtomicInteger();
+        StripedStock stock = new StripedStock(16, 50, want -> {
+            leases.incrementAndGet();
+            return leaseFrom(pool, want);
+        });
+
+        int buyers = 10_000;
+        AtomicInteger admitted = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService pool64 = Executors.newFixedThreadPool(64);
+        for (int i = 0; i < buyers; i++) {
+            pool64.execute(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (stock.tryTake(1)) admitted.incrementAndGet();
+            });
+        }
+        start.countDown();
+        pool64.shutdown();
+        assertTrue(pool64.awaitTermination(30, TimeUnit.SECONDS));
+
+        assertEquals(initialStock, admitted.get());
+        assertEquals(0, pool.get());
+        assertEquals(0, stock.available());
+        // one lease per chunk plus the empty one that marks the SKU sold out
+        assertEquals(initialStock / 50 + 1, leases.get());
+    }
+
+    @Test
+    void multiUnitTakeSpansStripes() {
+        AtomicLong pool = new AtomicLong(10);
+        StripedStock stock = new StripedStock(4, 3, want -> leaseFrom(pool, want));
+        assertTrue(stock.tryTake(2));
+        assertTrue(stock.tryTake(8));
+        assertFalse(stock.tryTake(1));
+    }
+
+    @Test
+    void releasedUnitsCanBeTakenAgain() {
+        AtomicLong pool = new AtomicLong(1);
+        StripedStock stock = new StripedStock(4, 10, want -> leaseFrom(pool, want));
+        assertTrue(stock.tryTake(1));
+        assertFalse(stock.tryTake(1));
+        stock.release(1);
+        assertTrue(stock.tryTake(1));
+    }
+}
@@ -0,0 +1,52 @@
+package com.example.in_class_project.reconciliation;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+// in-memory gateway with a fixed per-call latency, standing in for Razorpay's fetch-payments API
+class FakePaymentGateway implements PaymentGateway {
+
+    private final Map<String, GatewayPayment> settled = new ConcurrentHashMap<>();
+    private final Map<String, Boolean> broken = new ConcurrentHashMap<>();
+    private final long latencyNanos;
+    private final AtomicInteger calls = new AtomicInteger();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+
+    FakePaymentGateway(long latencyMillis) {
+        this.latencyNanos = TimeUnit.MILLISECONDS.toNanos(latencyMillis);
+    }
+
+    void settle(String razorpayOrderId, String paymentId, String status) {
+        settled.put(razorpayOrderId, new GatewayPayment(paymentId, status));
+    }
+
+    void breakOrder(String razorpayOrderId) {
+        broken.put(razorpayOrderId, true);
+    }
+
+    int calls() {
+        return calls.get();
+    }
+
+    int maxInFlight() {
+        return maxInFlight.get();
+    }
+
+    @Override
+    public Optional<GatewayPayment> settledPayment(String razorpayOrderId) throws Exception {
+        calls.incrementAndGet();
+        maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+        try {
+            LockSupport.parkNanos(latencyNanos);
+            if (broken.containsKey(razorpayOrderId)) throw new Exception("BAD_REQUEST_ERROR");
+            return Optional.ofNullable(settled.get(razorpayOrderId));
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+}
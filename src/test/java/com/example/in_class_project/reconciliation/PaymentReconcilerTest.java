@@ -0,0 +1,85 @@
+package com.example.in_class_project.reconciliation;
+
+import com.example.in_class_project.model.Payment;
+import com.example.in_class_project.service.PaymentService;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class PaymentReconcilerTest {
+
+    private static final int PENDING = 10_000;
+    private static final int CONCURRENCY = 32;
+
+    @Test
+    void correctsSettledPaymentsThroughTheWebhookPath() {
+        Instant t0 = Instant.parse("2026-01-01T00:00:00Z");
+        List<Payment> pending = new ArrayList<>();
+        FakePaymentGateway gateway = new FakePaymentGateway(2);
+        for (int i = 0; i < PENDING; i++) {
+            String rp = "order_" + i;
+            pending.add(Payment.builder().id("p-" + i).status("PENDING").razorpayOrderId(rp)
+                    .createdAt(t0.plusSeconds(i)).build());
+            // a third captured, a third failed, the rest never paid
+            if (i % 3 == 0) gateway.settle(rp, "pay_" + i, "captured");
+            if (i % 3 == 1) gateway.settle(rp, "pay_" + i, "failed");
+        }
+        gateway.breakOrder("order_2");
+
+        MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+        AtomicInteger cursor = new AtomicInteger();
+        when(mongoTemplate.find(any(Query.class), eq(Payment.class))).thenAnswer(inv -> {
+            Query q = inv.getArgument(0);
+            int from = cursor.get();
+            int to = Math.min(pending.size(), from + q.getLimit());
+            cursor.set(to);
+            return new ArrayList<>(pending.subList(from, to));
+        });
+        PaymentService paymentService = mock(PaymentService.class);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+        PaymentReconciler reconciler = new PaymentReconciler(mongoTemplate, paymentService, gateway, registry,
+                15, 50, CONCURRENCY);
+        try {
+            PaymentReconciler.Report report = reconciler.reconcileOlderThan(t0.plusSeconds(PENDING));
+
+            int captured = (PENDING + 2) / 3;
+            int failed = (PENDING + 1) / 3;
+            assertEquals(PENDING, report.checked());
+            assertEquals(captured + failed, report.corrected());
+            assertEquals(PENDING, gateway.calls());
+            assertTrue(gateway.maxInFlight() <= CONCURRENCY, "gateway calls exceeded the executor bound");
+            verify(paymentService, times(captured)).handleWebhook(anyString(), anyString(), eq("captured"));
+            verify(paymentService, times(failed)).handleWebhook(anyString(), anyString(), eq("failed"));
+            verify(paymentService).handleWebhook("pay_0", "order_0", "captured");
+            verify(paymentService).handleWebhook("pay_1", "order_1", "failed");
+            verify(paymentService, never()).handleWebhook(anyString(), eq("order_2"), anyString());
+            assertEquals(captured, outcomes(registry, "paid"));
+            assertEquals(failed, outcomes(registry, "failed"));
+            assertEquals(PENDING - captured - failed - 1, outcomes(registry, "unsettled"));
+            assertEquals(1, outcomes(registry, "error"));
+
+            Timer batches = registry.get("payments.reconcile.batch").timer();
+            assertEquals(PENDING / 50, batches.count());
+        } finally {
+            reconciler.shutdown();
+        }
+    }
+
+    private static long outcomes(SimpleMeterRegistry registry, String outcome) {
+        return (long) registry.get("payments.reconcile.payments").tag("outcome", outcome).counter().count();
+    }
+}
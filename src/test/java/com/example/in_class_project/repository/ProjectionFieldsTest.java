@@ -0,0 +1,104 @@
+package com.example.in_class_project.repository;
+
+import com.example.in_class_project.inventory.FlashSaleInventory;
+import com.example.in_class_project.service.AnalyticsService;
+import com.example.in_class_project.service.CartService;
+import com.example.in_class_project.service.OrderService;
+import com.example.in_class_project.service.PaymentService;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.MongoDatabase;
+import com.razorpay.RazorpayClient;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.mongodb.MongoDatabaseFactory;
+import org.springframework.data.mongodb.core.MongoExceptionTranslator;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.MongoCustomConversions;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.data.mongodb.repository.support.MongoRepositoryFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Runs the projected reads through a real MongoTemplate on a stubbed driver and
+ * checks the projection document that would go to the server, so a read that
+ * silently falls back to whole documents fails here.
+ */
+class ProjectionFieldsTest {
+
+    private final List<Document> projections = new ArrayList<>();
+    private MongoTemplate mongoTemplate;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void wire() {
+        FindIterable<Document> results = mock(FindIterable.class, RETURNS_SELF);
+        when(results.projection(any(Bson.class))).thenAnswer(inv -> {
+            projections.add(inv.getArgument(0));
+            return results;
+        });
+        when(results.iterator()).thenReturn(mock(MongoCursor.class));
+        MongoCollection<Document> collection = mock(MongoCollection.class, RETURNS_SELF);
+        doReturn(results).when(collection).find(any(Bson.class), eq(Document.class));
+        MongoDatabase db = mock(MongoDatabase.class);
+        doReturn(collection).when(db).getCollection(anyString(), eq(Document.class));
+        MongoDatabaseFactory factory = mock(MongoDatabaseFactory.class);
+        when(factory.getMongoDatabase()).thenReturn(db);
+        when(factory.getExceptionTranslator()).thenReturn(new MongoExceptionTranslator());
+
+        MongoCustomConversions conversions = new MongoCustomConversions(List.of());
+        MongoMappingContext mappingContext = new MongoMappingContext();
+        mappingContext.setSimpleTypeHolder(conversions.getSimpleTypeHolder());
+        MappingMongoConverter converter = new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, mappingContext);
+        converter.setCustomConversions(conversions);
+        converter.afterPropertiesSet();
+        mongoTemplate = new MongoTemplate(factory, converter);
+    }
+
+    @Test
+    void cartLinesReadOnlyProductAndQuantity() {
+        CartRepository repo = new MongoRepositoryFactory(mongoTemplate).getRepository(CartRepository.class);
+        repo.findLinesByUserId("u-1");
+        assertEquals(Set.of("productId", "quantity"), lastProjection());
+    }
+
+    @Test
+    void orderItemLinesReadOnlyLineFields() {
+        orderService().getOrderItemLines("u-1:order");
+        assertEquals(Set.of("productId", "quantity", "price"), lastProjection());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void paymentSummaryLeavesGatewayFieldsBehind() {
+        PaymentService payments = new PaymentService(mock(PaymentRepository.class), orderService(),
+                (ObjectProvider<RazorpayClient>) mock(ObjectProvider.class), mock(AnalyticsService.class), mongoTemplate);
+        payments.getSummaryByOrderId("u-1:order");
+        assertEquals(Set.of("_id", "status", "amount", "paymentId"), lastProjection());
+    }
+
+    private OrderService orderService() {
+        return new OrderService(mock(OrderRepository.class), mock(OrderItemRepository.class), mock(CartRepository.class),
+                mock(ProductRepository.class), mock(CartService.class), mongoTemplate,
+                mock(ApplicationEventPublisher.class), mock(FlashSaleInventory.class));
+    }
+
+    private Set<String> lastProjection() {
+        assertFalse(projections.isEmpty(), "no query reached the driver");
+        return projections.get(projections.size() - 1).keySet();
+    }
+}
@@ -0,0 +1,384 @@
+package com.example.in_class_project.service;
+
+import com.example.in_class_project.inventory.FlashSaleInventory;
+import com.example.in_class_project.model.Order;
+import com.example.in_class_project.model.OrderItem;
+import com.example.in_class_project.model.OrderStatus;
+import com.example.in_class_project.model.Payment;
+import com.example.in_class_project.model.Product;
+import com.example.in_class_project.repository.CartRepository;
+import com.example.in_class_project.repository.OrderItemRepository;
+import com.example.in_class_project.repository.OrderRepository;
+import com.example.in_class_project.repository.PaymentRepository;
+import com.example.in_class_project.repository.ProductRepository;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.ServerAddress;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.result.UpdateResult;
+import com.razorpay.RazorpayClient;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.BeanWrapper;
+import org.springframework.beans.PropertyAccessorFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.UpdateDefinition;
+
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Fires capture and failure webhooks, cancels and expiry sweeps at the same
+ * orders from many threads. Mongo is emulated in memory with the one guarantee
+ * the code relies on: each findAndModify / updateFirst is atomic per document.
+ */
+class OrderStateMachineConcurrencyTest {
+
+    private static final int ORDERS = 300;
+
+    private final Docs db = new Docs();
+    private final Map<String, AtomicInteger> stockReleases = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> salesRecorded = new ConcurrentHashMap<>();
+    // products whose next stock $inc the emulated bulk write rejects
+    private final Set<String> failingReleases = ConcurrentHashMap.newKeySet();
+    // order lines by order; orders not listed have a single line for "prod-<orderId>"
+    private final Map<String, List<String>> productsOf = new ConcurrentHashMap<>();
+
+    private OrderService orderService;
+    private PaymentService paymentService;
+    private OrderExpiryService expiryService;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void wire() {
+        MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+        when(mongoTemplate.findAndModify(any(Query.class), any(UpdateDefinition.class), any(FindAndModifyOptions.class), any(Class.class)))
+                .thenAnswer(inv -> db.findAndModify(inv.getArgument(0), inv.getArgument(1), inv.getArgument(3)));
+        when(mongoTemplate.updateFirst(any(Query.class), any(UpdateDefinition.class), any(Class.class)))
+                .thenAnswer(inv -> db.updateFirst(inv.getArgument(0), inv.getArgument(1), inv.getArgument(2)));
+        when(mongoTemplate.updateMulti(any(Query.class), any(UpdateDefinition.class), any(Class.class)))
+                .thenAnswer(inv -> db.updateMulti(inv.getArgument(0), inv.getArgument(1), inv.getArgument(2)));
+        when(mongoTemplate.findOne(any(Query.class), any(Class.class)))
+                .thenAnswer(inv -> db.findOne(inv.getArgument(0), inv.getArgument(1)));
+        when(mongoTemplate.find(any(Query.class), eq(Order.class)))
+                .thenAnswer(inv -> db.find(inv.getArgument(0), Order.class));
+        when(mongoTemplate.find(any(Query.class), eq(OrderItem.class)))
+                .thenAnswer(inv -> itemsOf(inv.getArgument(0)));
+        when(mongoTemplate.bulkOps(any(BulkOperations.BulkMode.class), eq(Product.class)))
+                .thenAnswer(inv -> stockBulk());
+
+        // no payment_refs entry for the seeded payments, so webhooks take the legacy lookup
+        PaymentRepository paymentRepo = mock(PaymentRepository.class);
+        when(paymentRepo.findByRazorpayOrderId(anyString()))
+                .thenAnswer(inv -> db.byId(inv.<String>getArgument(0).replace("rp-", "pay-"), Payment.class));
+        AnalyticsService analytics = mock(AnalyticsService.class);
+        doAnswer(inv -> {
+            salesRecorded.computeIfAbsent(inv.<Order>getArgument(0).getId(), k -> new AtomicInteger()).incrementAndGet();
+            return null;
+        }).when(analytics).recordPaidOrder(any(Order.class));
+
+        orderService = new OrderService(mock(OrderRepository.class), mock(OrderItemRepository.class), mock(CartRepository.class), mock(ProductRepository.class),
+                mock(CartService.class), mongoTemplate, mock(ApplicationEventPublisher.class), mock(FlashSaleInventory.class));
+        paymentService = new PaymentService(paymentRepo, orderService, (ObjectProvider<RazorpayClient>) mock(ObjectProvider.class),
+                analytics, mongoTemplate);
+        expiryService = new OrderExpiryService(mongoTemplate, orderService, new SimpleMeterRegistry(), 30, 50, 2);
+    }
+
+    @AfterEach
+    void stop() {
+        expiryService.shutdown();
+    }
+
+    @Test
+    void lateFailureDoesNotUndoCapture() {
+        seed(1);
+        paymentService.handleWebhook("pay_x", "rp-0", "captured");
+        paymentService.handleWebhook("pay_x", "rp-0", "failed");
+        paymentService.handleWebhook("pay_x", "rp-0", "captured");
+
+        assertEquals("PAID", db.byId("o-0", Order.class).orElseThrow().getStatus());
+        assertEquals("SUCCESS", db.byId("pay-0", Payment.class).orElseThrow().getStatus());
+        assertEquals(1, salesRecorded.get("o-0").get());
+        assertThrows(IllegalStateException.class, () -> orderService.cancel("o-0"));
+    }
+
+    @Test
+    void captureAfterCancelIsMarkedForRefund() {
+        seed(1);
+        orderService.cancel("o-0");
+        paymentService.handleWebhook("pay_x", "rp-0", "captured");
+        paymentService.handleWebhook("pay_x", "rp-0", "captured");
+
+        assertEquals("CANCELLED", db.byId("o-0", Order.class).orElseThrow().getStatus());
+        Payment p = db.byId("pay-0", Payment.class).orElseThrow();
+        assertEquals(PaymentService.REFUND_REQUIRED, p.getStatus());
+        assertEquals("pay_x", p.getPaymentId());
+        assertNull(salesRecorded.get("o-0"));
+    }
+
+    @Test
+    void partlyFailedStockReleaseIsRetriedForTheFailedProductsOnly() {
+        seed(1);
+        productsOf.put("o-0", List.of("prod-a", "prod-b"));
+        failingReleases.add("prod-b");
+
+        assertEquals(1, expiryService.expireOlderThan(Instant.now()));
+        Order expired = db.byId("o-0", Order.class).orElseThrow();
+        assertEquals("EXPIRED", expired.getStatus());
+        assertEquals(Boolean.FALSE, expired.getStockReleased());
+        assertEquals(List.of("prod-b"), expired.getStockOwed());
+        assertEquals(1, count(stockReleases, "prod-a"));
+        assertEquals(0, count(stockReleases, "prod-b"));
+
+        assertEquals(1, expiryService.retryReleases());
+        assertEquals(0, expiryService.retryReleases());
+        Order released = db.byId("o-0", Order.class).orElseThrow();
+        assertEquals(Boolean.TRUE, released.getStockReleased());
+        assertNull(released.getStockOwed());
+        assertEquals(1, count(stockReleases, "prod-a"));
+        assertEquals(1, count(stockReleases, "prod-b"));
+    }
+
+    @Test
+    void cancelStandsWhenItsStockReleaseFails() {
+        seed(1);
+        failingReleases.add("prod-o-0");
+
+        assertEquals("CANCELLED", orderService.cancel("o-0").getStatus());
+        Order cancelled = db.byId("o-0", Order.class).orElseThrow();
+        assertEquals(Boolean.FALSE, cancelled.getStockReleased());
+        assertEquals(List.of("prod-o-0"), cancelled.getStockOwed());
+        assertEquals(0, count(stockReleases, "prod-o-0"));
+
+        assertEquals(1, expiryService.retryReleases());
+        assertEquals(1, count(stockReleases, "prod-o-0"));
+        assertEquals(Boolean.TRUE, db.byId("o-0", Order.class).orElseThrow().getStockReleased());
+    }
+
+    @Test
+    void racingWebhooksCancelsAndExpiriesLeaveConsistentOrders() throws Exception {
+        seed(ORDERS);
+        List<Callable<Void>> work = new ArrayList<>();
+        for (int i = 0; i < ORDERS; i++) {
+            String rp = "rp-" + i;
+            String orderId = "o-" + i;
+            work.add(() -> { paymentService.handleWebhook("pay_" + rp, rp, "captured"); return null; });
+            work.add(() -> { paymentService.handleWebhook("pay_" + rp, rp, "failed"); return null; });
+            work.add(() -> {
+                try {
+                    orderService.cancel(orderId);
+                } catch (IllegalStateException rejected) {
+                    // lost the race to a capture or an expiry
+                }
+                return null;
+            });
+        }
+        for (int i = 0; i < 8; i++) {
+            work.add(() -> { expiryService.expireOlderThan(Instant.now()); return null; });
+        }
+        Collections.shuffle(work, new Random(38));
+
+        ExecutorService pool = Executors.newFixedThreadPool(16);
+        CountDownLatch go = new CountDownLatch(1);
+        List<Future<Void>> done = new ArrayList<>();
+        for (Callable<Void> c : work) {
+            done.add(pool.submit(() -> { go.await(); return c.call(); }));
+        }
+        go.countDown();
+        for (Future<Void> f : done) f.get(30, TimeUnit.SECONDS);
+        pool.shutdown();
+
+        Map<String, Integer> outcomes = new TreeMap<>();
+        for (int i = 0; i < ORDERS; i++) {
+            String orderId = "o-" + i;
+            Order o = db.byId(orderId, Order.class).orElseThrow();
+            Payment p = db.byId("pay-" + i, Payment.class).orElseThrow();
+            int released = count(stockReleases, "prod-" + orderId);
+            int sales = count(salesRecorded, orderId);
+            outcomes.merge(o.getStatus(), 1, Integer::sum);
+
+            switch (OrderStatus.valueOf(o.getStatus())) {
+                case PAID -> {
+                    assertEquals("SUCCESS", p.getStatus(), orderId);
+                    assertEquals(1, sales, "sale recorded once for " + orderId);
+                    assertEquals(0, released, "paid order must keep its stock: " + orderId);
+                }
+                case CANCELLED, EXPIRED -> {
+                    // the customer was still charged, which has to be recorded on the payment
+                    assertEquals(PaymentService.REFUND_REQUIRED, p.getStatus(), orderId);
+                    assertEquals(0, sales, orderId);
+                    assertEquals(1, released, "stock released exactly once for " + orderId);
+                }
+                default -> fail(orderId + " left in non-final status " + o.getStatus());
+            }
+            assertTrue(o.getVersion() != null && o.getVersion() >= 1, orderId);
+        }
+        assertTrue(Set.of("PAID", "CANCELLED", "EXPIRED").containsAll(outcomes.keySet()), outcomes.toString());
+        assertEquals(ORDERS, outcomes.values().stream().mapToInt(Integer::intValue).sum(), outcomes.toString());
+        assertEquals((int) outcomes.getOrDefault("PAID", 0), salesRecorded.size(), "one sale per paid order");
+    }
+
+    private void seed(int n) {
+        Instant placed = Instant.now().minusSeconds(3600);
+        for (int i = 0; i < n; i++) {
+            db.put("o-" + i, Order.builder().id("o-" + i).userId("u").totalAmount(100.0)
+                    .status("CREATED").createdAt(placed).build());
+            db.put("pay-" + i, Payment.builder().id("pay-" + i).orderId("o-" + i).amount(100.0)
+                    .status("PENDING").razorpayOrderId("rp-" + i).createdAt(placed).build());
+        }
+    }
+
+    // mongoTemplate.find(orderId $in [...], OrderItem.class)
+    private List<OrderItem> itemsOf(Query q) {
+        List<OrderItem> items = new ArrayList<>();
+        for (Object orderId : q.getQueryObject().get("orderId", Document.class).get("$in", Collection.class)) {
+            for (String productId : productsOf.getOrDefault((String) orderId, List.of("prod-" + orderId))) {
+                items.add(OrderItem.builder().orderId((String) orderId).productId(productId).quantity(1).build());
+            }
+        }
+        return items;
+    }
+
+    // counts the $inc each product gets; writes for products in failingReleases fail once, the rest still apply
+    private BulkOperations stockBulk() {
+        List<String> queued = new ArrayList<>();
+        return mock(BulkOperations.class, inv -> {
+            if (inv.getMethod().getName().equals("updateOne") && inv.getArgument(0) instanceof Query q) {
+                queued.add((String) q.getQueryObject().get("_id"));
+            } else if (inv.getMethod().getName().equals("execute")) {
+                List<BulkWriteError> errors = new ArrayList<>();
+                for (int i = 0; i < queued.size(); i++) {
+                    if (failingReleases.remove(queued.get(i))) {
+                        errors.add(new BulkWriteError(11600, "interrupted", new BsonDocument(), i));
+                    } else {
+                        stockReleases.computeIfAbsent(queued.get(i), k -> new AtomicInteger()).incrementAndGet();
+                    }
+                }
+                if (!errors.isEmpty()) throw new BulkOperationException("bulk write failed",
+                        new MongoBulkWriteException(BulkWriteResult.unacknowledged(), errors, null, new ServerAddress(), Set.of()));
+            }
+            return BulkOperations.class.equals(inv.getMethod().getReturnType()) ? inv.getMock() : null;
+        });
+    }
+
+    private static int count(Map<String, AtomicInteger> counts, String key) {
+        AtomicInteger c = counts.get(key);
+        return c == null ? 0 : c.get();
+    }
+
+    // documents keyed by id; every operation holds the lock, standing in for Mongo's per-document atomicity
+    private static final class Docs {
+
+        private final Map<String, Object> docs = new HashMap<>();
+
+        synchronized void put(String id, Object doc) {
+            docs.put(id, doc);
+        }
+
+        synchronized <T> Optional<T> byId(String id, Class<T> type) {
+            Object doc = docs.get(id);
+            return type.isInstance(doc) ? Optional.of(copy(type.cast(doc), type)) : Optional.empty();
+        }
+
+        synchronized <T> T findOne(Query q, Class<T> type) {
+            T doc = first(q, type);
+            return doc == null ? null : copy(doc, type);
+        }
+
+        synchronized <T> T findAndModify(Query q, UpdateDefinition u, Class<T> type) {
+            T doc = first(q, type);
+            if (doc == null) return null;
+            apply(doc, u.getUpdateObject());
+            return copy(doc, type);
+        }
+
+        synchronized UpdateResult updateFirst(Query q, UpdateDefinition u, Class<?> type) {
+            Object doc = first(q, type);
+            if (doc == null) return UpdateResult.acknowledged(0, 0L, null);
+            apply(doc, u.getUpdateObject());
+            return UpdateResult.acknowledged(1, 1L, null);
+        }
+
+        synchronized UpdateResult updateMulti(Query q, UpdateDefinition u, Class<?> type) {
+            long n = 0;
+            for (Object doc : docs.values()) {
+                if (type.isInstance(doc) && matches(doc, q.getQueryObject())) {
+                    apply(doc, u.getUpdateObject());
+                    n++;
+                }
+            }
+            return UpdateResult.acknowledged(n, n, null);
+        }
+
+        synchronized <T> List<T> find(Query q, Class<T> type) {
+            List<T> out = new ArrayList<>();
+            for (Object doc : docs.values()) {
+                if (type.isInstance(doc) && matches(doc, q.getQueryObject())) out.add(copy(type.cast(doc), type));
+                if (q.getLimit() > 0 && out.size() == q.getLimit()) break;
+            }
+            return out;
+        }
+
+        private <T> T first(Query q, Class<T> type) {
+            for (Object doc : docs.values()) {
+                if (type.isInstance(doc) && matches(doc, q.getQueryObject())) return type.cast(doc);
+            }
+            return null;
+        }
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private static boolean matches(Object doc, Document query) {
+            BeanWrapper bean = PropertyAccessorFactory.forBeanPropertyAccess(doc);
+            for (Map.Entry<String, Object> e : query.entrySet()) {
+                Object actual = bean.getPropertyValue(field(e.getKey()));
+                if (e.getValue() instanceof Document op) {
+                    if (op.containsKey("$in") && !((Collection<?>) op.get("$in")).contains(actual)) return false;
+                    if (op.containsKey("$lt") && (actual == null || ((Comparable) actual).compareTo(op.get("$lt")) >= 0)) return false;
+                } else if (!Objects.equals(e.getValue(), actual)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static void apply(Object doc, Document update) {
+            BeanWrapper bean = PropertyAccessorFactory.forBeanPropertyAccess(doc);
+            Document set = update.get("$set", Document.class);
+            if (set != null) set.forEach((k, v) -> bean.setPropertyValue(field(k), v));
+            Document unset = update.get("$unset", Document.class);
+            if (unset != null) unset.keySet().forEach(k -> bean.setPropertyValue(field(k), null));
+            Document inc = update.get("$inc", Document.class);
+            if (inc != null) inc.forEach((k, v) -> {
+                Number current = (Number) bean.getPropertyValue(field(k));
+                bean.setPropertyValue(field(k), (current == null ? 0L : current.longValue()) + ((Number) v).longValue());
+            });
+        }
+
+        private static String field(String key) {
+            return "_id".equals(key) ? "id" : key;
+        }
+
+        private static <T> T copy(T doc, Class<T> type) {
+            T copy = BeanUtils.instantiateClass(type);
+            BeanUtils.copyProperties(doc, copy);
+            return copy;
+        }
+    }
+}
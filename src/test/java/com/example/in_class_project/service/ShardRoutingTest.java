@@ -0,0 +1,200 @@
+package com.example.in_class_project.service;
+
+import com.example.in_class_project.inventory.FlashSaleInventory;
+import com.example.in_class_project.model.Order;
+import com.example.in_class_project.model.OrderItem;
+import com.example.in_class_project.model.Payment;
+import com.example.in_class_project.repository.CartRepository;
+import com.example.in_class_project.repository.OrderItemRepository;
+import com.example.in_class_project.repository.OrderRepository;
+import com.example.in_class_project.repository.PaymentRepository;
+import com.example.in_class_project.repository.ProductRepository;
+import com.example.in_class_project.repository.projection.OrderItemLine;
+import com.example.in_class_project.sharding.ShardKeys;
+import com.razorpay.RazorpayClient;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.BeanWrapper;
+import org.springframework.beans.PropertyAccessorFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.mongodb.core.ExecutableFindOperation.ExecutableFind;
+import org.springframework.data.mongodb.core.ExecutableFindOperation.TerminatingFind;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.util.*;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Runs the order and payment lookups against collections partitioned the way a
+ * hashed userId shard key partitions them, routing like mongos does: a filter
+ * with equality on userId goes to the one shard that owns it, any other filter
+ * goes to every shard. Counts the shards each lookup visits.
+ */
+class ShardRoutingTest {
+
+    private static final int SHARDS = 4;
+    private static final int USERS = 200;
+
+    private final Partitioned<Order> orders = new Partitioned<>(Order::getUserId);
+    private final Partitioned<OrderItem> items = new Partitioned<>(OrderItem::getUserId);
+    private final Partitioned<Payment> payments = new Partitioned<>(Payment::getUserId);
+    // payment_refs is small and unsharded, it lives on the primary shard
+    private final Map<String, Document> refs = new HashMap<>();
+
+    private final List<String> newOrderIds = new ArrayList<>();
+    private final List<String> legacyOrderIds = new ArrayList<>();
+
+    private OrderService orderService;
+    private PaymentService paymentService;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void wire() {
+        for (int u = 0; u < USERS; u++) {
+            String userId = "u-" + u;
+            seed(userId, ShardKeys.newId(userId), true);
+            // from before user-scoped ids: plain UUIDs and no payment_refs entry
+            seed(userId, UUID.randomUUID().toString(), false);
+        }
+
+        MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+        when(mongoTemplate.findOne(any(Query.class), eq(Order.class)))
+                .thenAnswer(inv -> orders.findFirst(inv.getArgument(0)));
+        when(mongoTemplate.findOne(any(Query.class), eq(Payment.class)))
+                .thenAnswer(inv -> payments.findFirst(inv.getArgument(0)));
+        when(mongoTemplate.query(OrderItem.class)).thenAnswer(inv -> itemLines());
+        when(mongoTemplate.findById(anyString(), eq(Document.class), eq("payment_refs")))
+                .thenAnswer(inv -> refs.get(inv.<String>getArgument(0)));
+
+        // derived query without the shard key
+        PaymentRepository paymentRepo = mock(PaymentRepository.class);
+        when(paymentRepo.findByRazorpayOrderId(anyString())).thenAnswer(inv -> Optional.ofNullable(
+                payments.findFirst(Query.query(Criteria.where("razorpayOrderId").is(inv.getArgument(0))))));
+
+        orderService = new OrderService(mock(OrderRepository.class), mock(OrderItemRepository.class), mock(CartRepository.class),
+                mock(ProductRepository.class), mock(CartService.class), mongoTemplate,
+                mock(ApplicationEventPublisher.class), mock(FlashSaleInventory.class));
+        paymentService = new PaymentService(paymentRepo, orderService, (ObjectProvider<RazorpayClient>) mock(ObjectProvider.class),
+                mock(AnalyticsService.class), mongoTemplate);
+    }
+
+    @Test
+    void lookupsOnNewIdsVisitOneShard() {
+        for (String orderId : newOrderIds) {
+            assertEquals(orderId, orderService.getOrder(orderId).orElseThrow().getId());
+            assertEquals(List.of("p-" + orderId), orderService.getOrderItemLines(orderId).stream().map(OrderItemLine::productId).toList());
+            assertEquals(orderId, paymentService.findByGatewayOrder("rp-" + orderId).orElseThrow().getOrderId());
+        }
+        assertEquals(USERS, orders.shardsVisited);
+        assertEquals(USERS, items.shardsVisited);
+        assertEquals(USERS, payments.shardsVisited);
+    }
+
+    @Test
+    void lookupsOnLegacyIdsVisitEveryShard() {
+        for (String orderId : legacyOrderIds) {
+            assertEquals(orderId, orderService.getOrder(orderId).orElseThrow().getId());
+            assertEquals(List.of("p-" + orderId), orderService.getOrderItemLines(orderId).stream().map(OrderItemLine::productId).toList());
+            assertEquals(orderId, paymentService.findByGatewayOrder("rp-" + orderId).orElseThrow().getOrderId());
+        }
+        assertEquals(USERS * SHARDS, orders.shardsVisited);
+        assertEquals(USERS * SHARDS, items.shardsVisited);
+        assertEquals(USERS * SHARDS, payments.shardsVisited);
+    }
+
+    @Test
+    void usersSpreadAcrossShards() {
+        for (List<Order> shard : orders.shards) {
+            assertTrue(shard.size() > 2 * USERS / SHARDS / 2, "shard holds " + shard.size() + " of " + 2 * USERS + " orders");
+        }
+    }
+
+    private void seed(String userId, String orderId, boolean userScoped) {
+        orders.insert(Order.builder().id(orderId).userId(userId).status("CREATED").build());
+        items.insert(OrderItem.builder().id(userScoped ? ShardKeys.newId(userId) : UUID.randomUUID().toString())
+                .userId(userId).orderId(orderId).productId("p-" + orderId).quantity(1).price(10.0).build());
+        String paymentId = userScoped ? ShardKeys.newId(userId) : UUID.randomUUID().toString();
+        payments.insert(Payment.builder().id(paymentId).userId(userId).orderId(orderId)
+                .status("PENDING").razorpayOrderId("rp-" + orderId).build());
+        if (userScoped) {
+            refs.put("rp-" + orderId, new Document("_id", "rp-" + orderId).append("paymentId", paymentId));
+            newOrderIds.add(orderId);
+        } else {
+            legacyOrderIds.add(orderId);
+        }
+    }
+
+    // mongoTemplate.query(OrderItem.class).as(OrderItemLine.class).matching(q).all()
+    private ExecutableFind<?> itemLines() {
+        return mock(ExecutableFind.class, inv -> switch (inv.getMethod().getName()) {
+            case "as" -> inv.getMock();
+            case "matching" -> linesOf(inv.getArgument(0));
+            default -> null;
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private TerminatingFind<OrderItemLine> linesOf(Query q) {
+        TerminatingFind<OrderItemLine> find = mock(TerminatingFind.class);
+        when(find.all()).thenAnswer(inv -> items.find(q).stream()
+                .map(it -> new OrderItemLine(it.getProductId(), it.getQuantity(), it.getPrice())).toList());
+        return find;
+    }
+
+    private static final class Partitioned<T> {
+
+        final List<List<T>> shards = new ArrayList<>();
+        final Function<T, String> userIdOf;
+        int shardsVisited;
+
+        Partitioned(Function<T, String> userIdOf) {
+            this.userIdOf = userIdOf;
+            for (int i = 0; i < SHARDS; i++) shards.add(new ArrayList<>());
+        }
+
+        void insert(T doc) {
+            shards.get(shardOf(userIdOf.apply(doc))).add(doc);
+        }
+
+        T findFirst(Query q) {
+            List<T> found = find(q);
+            return found.isEmpty() ? null : found.get(0);
+        }
+
+        List<T> find(Query q) {
+            Document filter = q.getQueryObject();
+            List<List<T>> visit = filter.get(ShardKeys.FIELD) instanceof String userId
+                    ? List.of(shards.get(shardOf(userId)))
+                    : shards;
+            shardsVisited += visit.size();
+            List<T> out = new ArrayList<>();
+            for (List<T> shard : visit) {
+                for (T doc : shard) {
+                    if (matches(doc, filter)) out.add(doc);
+                }
+            }
+            return out;
+        }
+
+        private static boolean matches(Object doc, Document filter) {
+            BeanWrapper bean = PropertyAccessorFactory.forBeanPropertyAccess(doc);
+            for (Map.Entry<String, Object> e : filter.entrySet()) {
+                String field = "_id".equals(e.getKey()) ? "id" : e.getKey();
+                if (!Objects.equals(e.getValue(), bean.getPropertyValue(field))) return false;
+            }
+            return true;
+        }
+
+        private static int shardOf(String userId) {
+            return Math.floorMod(userId.hashCode() * 0x9E3779B9, SHARDS);
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.example.in_class_project.sharding;
+
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks the filters ShardKeys builds. Whether mongos targets a single shard
+ * for them depends on the cluster and is not covered here; these tests only
+ * pin that new-format ids put the userId shard key into the filter and legacy
+ * ids do not.
+ */
+class ShardKeysTest {
+
+    @Test
+    void userIdIsRecoveredFromNewIdsOnly() {
+        assertEquals("u-1", ShardKeys.userIdOf(ShardKeys.newId("u-1")));
+        assertEquals("tenant:u-1", ShardKeys.userIdOf(ShardKeys.newId("tenant:u-1")));
+        assertNull(ShardKeys.userIdOf(UUID.randomUUID().toString()));
+        assertNull(ShardKeys.userIdOf("65f1c0a2e4b0a1b2c3d4e5f6"));
+        assertNull(ShardKeys.userIdOf(null));
+    }
+
+    @Test
+    void lookupByNewIdCarriesTheShardKey() {
+        String id = ShardKeys.newId("u-1");
+        assertEquals(new Document("_id", id).append("userId", "u-1"), ShardKeys.byId(id).getQueryObject());
+    }
+
+    @Test
+    void lookupByLegacyIdIsIdOnly() {
+        String id = UUID.randomUUID().toString();
+        assertEquals(new Document("_id", id), ShardKeys.byId(id).getQueryObject());
+    }
+
+    @Test
+    void childrenOfANewOrderCarryTheShardKey() {
+        String orderId = ShardKeys.newId("u-1");
+        assertEquals(new Document("orderId", orderId).append("userId", "u-1"),
+                ShardKeys.byParent("orderId", orderId).getQueryObject());
+    }
+
+    @Test
+    void childrenOfALegacyOrderAreMatchedByParentOnly() {
+        String orderId = UUID.randomUUID().toString();
+        assertEquals(new Document("orderId", orderId), ShardKeys.byParent("orderId", orderId).getQueryObject());
+    }
+}